@@ -0,0 +1,39 @@
+package com.jbatista.wmo;
+
+/**
+ * <p>Defines how samples beyond the range of -1 to 1 are handled when converted to PCM.</p>
+ * <ul>
+ *     <li>{@link #HARD}: values out of range are cut at the limit.</li>
+ *     <li>{@link #SOFT}: values up to 0.5 are kept, louder values are saturated smoothly towards the limit, instead of being cut.</li>
+ * </ul>
+ *
+ * @see com.jbatista.wmo.util.PcmConverter#setClipping(Clipping)
+ */
+public enum Clipping {
+
+    HARD {
+        @Override
+        public double apply(double sample) {
+            return Math.max(-1, Math.min(sample, 1));
+        }
+    },
+
+    SOFT {
+        @Override
+        public double apply(double sample) {
+            if ((sample >= -0.5) && (sample <= 0.5)) {
+                return sample;
+            }
+
+            // same slope as the linear part where they meet, so there is no corner
+            return Math.copySign(0.5 + 0.5 * Math.tanh((Math.abs(sample) - 0.5) * 2), sample);
+        }
+    };
+
+    /**
+     * @param sample A sample of any value.
+     * @return The sample, from -1 to 1.
+     */
+    public abstract double apply(double sample);
+
+}
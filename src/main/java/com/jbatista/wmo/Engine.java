@@ -0,0 +1,15 @@
+package com.jbatista.wmo;
+
+/**
+ * <p>Defines the arithmetic used to produce audio.</p>
+ * <ul>
+ *     <li>{@link #FLOATING_POINT}: every calculation is done with <code>double</code> values, follows the {@link EngineQuality} setting.</li>
+ *     <li>{@link #FIXED_POINT}: oscillators and envelopes are calculated with integers, using log domain tables like the original hardware.
+ *     The result is the same on every JVM, and it is lighter on the CPU. Band limited waves are not available on this mode.</li>
+ * </ul>
+ *
+ * @see com.jbatista.wmo.synthesis.Instrument#setEngine(Engine)
+ */
+public enum Engine {
+    FLOATING_POINT, FIXED_POINT
+}
@@ -0,0 +1,37 @@
+package com.jbatista.wmo;
+
+import com.jbatista.wmo.util.SineTable;
+
+/**
+ * <p>Defines how the oscillators calculate sine waves, trading accuracy for processing time.</p>
+ * <p>The maximum error is the largest difference from {@link Math#sin(double)}, for a wave going from -1 to 1.</p>
+ * <ul>
+ *     <li>{@link #EXACT}: uses {@link Math#sin(double)}, no error.</li>
+ *     <li>{@link #HIGH}: 4096 entries table with cubic interpolation, maximum error of 6e-11 (-204dB).</li>
+ *     <li>{@link #MEDIUM}: 4096 entries table with linear interpolation, maximum error of 3e-7 (-130dB).</li>
+ *     <li>{@link #LOW}: 1024 entries table with linear interpolation, maximum error of 5e-6 (-106dB).</li>
+ * </ul>
+ *
+ * @see SineTable
+ * @see com.jbatista.wmo.synthesis.Instrument#setEngineQuality(EngineQuality)
+ */
+public enum EngineQuality {
+    EXACT(null),
+    HIGH(new SineTable(4096, SineTable.Interpolation.CUBIC)),
+    MEDIUM(new SineTable(4096, SineTable.Interpolation.LINEAR)),
+    LOW(new SineTable(1024, SineTable.Interpolation.LINEAR));
+
+    private final SineTable sineTable;
+
+    EngineQuality(SineTable sineTable) {
+        this.sineTable = sineTable;
+    }
+
+    /**
+     * @return The table shared by every instrument using this setting, <code>null</code> for {@link #EXACT}.
+     */
+    public SineTable getSineTable() {
+        return sineTable;
+    }
+
+}
@@ -0,0 +1,19 @@
+package com.jbatista.wmo;
+
+/**
+ * <p>Defines which voice is taken when a key is pressed and every voice of the instrument is in use.</p>
+ * <ul>
+ *     <li>{@link #OLDEST}: the voice whose key was pressed first.</li>
+ *     <li>{@link #QUIETEST}: the voice with the lowest envelope amplitude on its carriers.</li>
+ *     <li>{@link #RELEASED_FIRST}: the oldest voice whose key was already released, or the oldest voice if every key is held.</li>
+ *     <li>{@link #SAME_NOTE}: a key pressed again restarts its own voice, even during release. Otherwise, same as {@link #OLDEST}.</li>
+ * </ul>
+ * <p>With every policy other than {@link #SAME_NOTE}, a key pressed again during its release gets a new voice and the previous one finishes its release.
+ * A voice that is taken fades out in a few milliseconds, instead of stopping abruptly.</p>
+ *
+ * @see com.jbatista.wmo.synthesis.Instrument#setVoiceStealing(VoiceStealing)
+ * @see com.jbatista.wmo.synthesis.Instrument#setMaxPolyphony(int)
+ */
+public enum VoiceStealing {
+    OLDEST, QUIETEST, RELEASED_FIRST, SAME_NOTE
+}
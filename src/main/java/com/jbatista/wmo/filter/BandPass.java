@@ -33,6 +33,20 @@ public class BandPass extends Biquad {
         return q;
     }
 
+    /**
+     * <p>Moves the center frequency and the Q to new values over the {@link #setSmoothingTime(double) smoothing time},
+     * calculating the coefficients once for both.</p>
+     * <p>Meant to be called once for each block when the parameters are modulated, a new target starts from wherever the previous one was.</p>
+     *
+     * @param centerFrequency The center frequency to reach.
+     * @param q The Q to reach.
+     */
+    public void setTarget(double centerFrequency, double q) {
+        this.frequency = centerFrequency;
+        this.q = q;
+        calculateTargetCoefficients();
+    }
+
     @Override
     protected void calculateCoefficients() {
         omega = MathFunctions.TAU * frequency / sampleRate;
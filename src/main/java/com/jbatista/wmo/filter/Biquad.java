@@ -1,7 +1,15 @@
 package com.jbatista.wmo.filter;
 
-// uses direct-form I
-abstract class Biquad implements Filter {
+/**
+ * <p>Second order filter, uses transposed direct-form II, keeping two values of state for each channel.</p>
+ * <p>Blocks are processed with the coefficients and the state in local variables, see {@link #process(double[], int, int)}.</p>
+ * <p>Parameters can be changed at once, or set as a target, in which case the coefficients move from the ones in use to the new ones
+ * sample by sample over the {@link #setSmoothingTime(double) smoothing time}, the trigonometry is calculated once for each target,
+ * so targets can be set for every block without zipper noise.</p>
+ *
+ * @see BiquadCascade
+ */
+public abstract class Biquad implements Filter {
 
     protected double frequency = 0;
     protected double sampleRate = 0;
@@ -25,43 +33,201 @@ abstract class Biquad implements Filter {
     protected double cB1 = 0;
     protected double cB2 = 0;
 
-    private double b0 = 0;
-    private double b1 = 0;
-    private double b2 = 0;
-    private double a1 = 0;
-    private double a2 = 0;
+    // normalized coefficients, also read by the cascades using this filter as a section
+    double b0 = 0;
+    double b1 = 0;
+    double b2 = 0;
+    double a1 = 0;
+    double a2 = 0;
 
-    private double y = 0;
+    // z1 and z2 of the left channel, then of the right channel
+    private final double[] state = new double[4];
 
-    private double in0 = 0;
-    private double in1 = 0;
-    private double in2 = 0;
+    private double smoothingTime = 0.005;
 
-    private double out0 = 0;
-    private double out1 = 0;
+    // the ramp goes from the start coefficients to the normalized ones, each channel follows it on its own,
+    // so the right channel, processed after the left one, hears the same coefficients
+    private boolean target = false;
+    private int rampFrames = 0;
+    private final int[] rampPosition = new int[2];
+    private final double[] rampStart = new double[5];
+    private final double[] rampDelta = new double[5];
+
+    public double getSmoothingTime() {
+        return smoothingTime;
+    }
+
+    /**
+     * <p>How long the coefficients take to reach a target.</p>
+     * <p>Defaults to <b>0.005</b> seconds.</p>
+     *
+     * @param smoothingTime A value from 0 to 1, in seconds.
+     */
+    public void setSmoothingTime(double smoothingTime) {
+        if ((smoothingTime < 0) || (smoothingTime > 1)) {
+            throw new IllegalArgumentException("Smoothing time must be from 0 to 1, found " + smoothingTime);
+        }
+
+        this.smoothingTime = smoothingTime;
+    }
 
     protected void normalize() {
+        if (target) {
+            startRamp();
+        } else {
+            rampFrames = 0;
+        }
+
         b0 = cB0 / cA0;
         b1 = cB1 / cA0;
         b2 = cB2 / cA0;
         a1 = cA1 / cA0;
         a2 = cA2 / cA0;
+
+        if (rampFrames > 0) {
+            rampDelta[0] = (b0 - rampStart[0]) / rampFrames;
+            rampDelta[1] = (b1 - rampStart[1]) / rampFrames;
+            rampDelta[2] = (b2 - rampStart[2]) / rampFrames;
+            rampDelta[3] = (a1 - rampStart[3]) / rampFrames;
+            rampDelta[4] = (a2 - rampStart[4]) / rampFrames;
+        }
+    }
+
+    /**
+     * <p>Calculates the coefficients of the current parameters as a target, used by the setters of targets.</p>
+     */
+    protected void calculateTargetCoefficients() {
+        target = true;
+        calculateCoefficients();
+        target = false;
+    }
+
+    // the ramp starts from what the left channel is hearing, which is in the middle of the previous ramp if there is one
+    private void startRamp() {
+        final int position = rampPosition[0];
+
+        if (position < rampFrames) {
+            for (int i = 0; i < 5; i++) {
+                rampStart[i] += rampDelta[i] * position;
+            }
+        } else {
+            rampStart[0] = b0;
+            rampStart[1] = b1;
+            rampStart[2] = b2;
+            rampStart[3] = a1;
+            rampStart[4] = a2;
+        }
+
+        rampFrames = Math.max(1, (int) Math.round(smoothingTime * sampleRate));
+        rampPosition[0] = 0;
+        rampPosition[1] = 0;
+    }
+
+    // whether the coefficients of the channel are still moving towards a target
+    boolean isRamping(int channel) {
+        return rampPosition[channel] < rampFrames;
     }
 
     @Override
     public double apply(double sample) {
-        in0 = sample;
+        return apply(sample, 0);
+    }
+
+    @Override
+    public double apply(double sample, int channel) {
+        return apply(sample, (channel == 0) ? 0 : 1, state, (channel == 0) ? 0 : 2);
+    }
+
+    // one sample of the channel, with z1 and z2 read from the state at the index
+    double apply(double sample, int channel, double[] state, int index) {
+        if (rampPosition[channel] < rampFrames) {
+            final int step = ++rampPosition[channel];
+            final double y = (rampStart[0] + rampDelta[0] * step) * sample + state[index];
+
+            state[index] = (rampStart[1] + rampDelta[1] * step) * sample + state[index + 1] - (rampStart[3] + rampDelta[3] * step) * y;
+            state[index + 1] = (rampStart[2] + rampDelta[2] * step) * sample - (rampStart[4] + rampDelta[4] * step) * y;
 
-        y = b0 * in0 + b1 * in1 + b2 * in2 - a1 * out0 - a2 * out1;
+            return y;
+        }
 
-        in2 = in1;
-        in1 = in0;
-        out1 = out0;
-        out0 = y;
+        final double y = b0 * sample + state[index];
+
+        state[index] = b1 * sample + state[index + 1] - a1 * y;
+        state[index + 1] = b2 * sample - a2 * y;
 
         return y;
     }
 
+    @Override
+    public void process(double[] buffer, int offset, int length) {
+        process(buffer, offset, length, 0, state, 0);
+    }
+
+    @Override
+    public void process(double[] buffer, int offset, int length, int channel) {
+        process(buffer, offset, length, (channel == 0) ? 0 : 1, state, (channel == 0) ? 0 : 2);
+    }
+
+    // a block of the channel, the part still on the ramp first, with z1 and z2 read from the state at the index
+    void process(double[] buffer, int offset, int length, int channel, double[] state, int index) {
+        final int position = rampPosition[channel];
+
+        if (position < rampFrames) {
+            final int frames = Math.min(length, rampFrames - position);
+
+            processRamp(buffer, offset, frames, position, state, index);
+            rampPosition[channel] = position + frames;
+            offset += frames;
+            length -= frames;
+        }
+
+        if (length > 0) {
+            process(buffer, offset, length, b0, b1, b2, a1, a2, state, index);
+        }
+    }
+
+    private void processRamp(double[] buffer, int offset, int length, int position, double[] state, int index) {
+        final double startB0 = rampStart[0], startB1 = rampStart[1], startB2 = rampStart[2], startA1 = rampStart[3], startA2 = rampStart[4];
+        final double deltaB0 = rampDelta[0], deltaB1 = rampDelta[1], deltaB2 = rampDelta[2], deltaA1 = rampDelta[3], deltaA2 = rampDelta[4];
+        double z1 = state[index];
+        double z2 = state[index + 1];
+        double step = position;
+        double x;
+        double y;
+
+        for (int i = offset; i < offset + length; i++) {
+            step++;
+            x = buffer[i];
+            y = (startB0 + deltaB0 * step) * x + z1;
+            z1 = (startB1 + deltaB1 * step) * x + z2 - (startA1 + deltaA1 * step) * y;
+            z2 = (startB2 + deltaB2 * step) * x - (startA2 + deltaA2 * step) * y;
+            buffer[i] = y;
+        }
+
+        state[index] = z1;
+        state[index + 1] = z2;
+    }
+
+    // the kernel shared with the cascades, z1 and z2 are read from the state at the index, and written back at the end
+    static void process(double[] buffer, int offset, int length,
+                        double b0, double b1, double b2, double a1, double a2, double[] state, int index) {
+        double z1 = state[index];
+        double z2 = state[index + 1];
+        double x;
+        double y;
+
+        for (int i = offset; i < offset + length; i++) {
+            x = buffer[i];
+            y = b0 * x + z1;
+            z1 = b1 * x + z2 - a1 * y;
+            z2 = b2 * x - a2 * y;
+            buffer[i] = y;
+        }
+
+        state[index] = z1;
+        state[index + 1] = z2;
+    }
+
     protected abstract void calculateCoefficients();
 
 }
@@ -0,0 +1,198 @@
+package com.jbatista.wmo.filter;
+
+/**
+ * <p>Series of second order sections applied one after the other in a single filter, for steeper slopes than a single {@link Biquad}.</p>
+ * <p>The coefficients are read from the sections given, so changing a section changes the cascade, while the state is kept by the cascade,
+ * a section used on a cascade should not be used as a filter by itself.</p>
+ * <p>Blocks are processed two sections at a time, with the coefficients and the state in local variables,
+ * so the processor works on both sections while each one waits for its previous sample.</p>
+ */
+public class BiquadCascade implements Filter {
+
+    private final Biquad[] sections;
+
+    // z1 and z2 of each section for the left channel, then for the right channel
+    private final double[] state;
+    private final int rightOffset;
+
+    /**
+     * @param sections The sections, in the order they are applied.
+     */
+    public BiquadCascade(Biquad... sections) {
+        if (sections.length == 0) {
+            throw new IllegalArgumentException("A cascade must have at least one section");
+        }
+
+        this.sections = sections.clone();
+        this.state = new double[sections.length * 4];
+        this.rightOffset = sections.length * 2;
+    }
+
+    /**
+     * <p>Butterworth low pass filter, each pair of orders is a section, attenuating 6dB per order above the cutoff frequency.</p>
+     *
+     * @param sampleRate      Sample rate of the audio.
+     * @param cutoffFrequency Cutoff frequency, where the output is 3dB lower.
+     * @param order           An even value from 2 to 16.
+     * @return A cascade of {@link LowPass} sections.
+     */
+    public static BiquadCascade lowPass(int sampleRate, double cutoffFrequency, int order) {
+        final Biquad[] sections = new Biquad[sectionCount(order)];
+
+        for (int i = 0; i < sections.length; i++) {
+            final LowPass lowPass = new LowPass(sampleRate);
+            lowPass.setCutoffFrequency(cutoffFrequency);
+            lowPass.setResonance(butterworthQ(i, order));
+            sections[i] = lowPass;
+        }
+
+        return new BiquadCascade(sections);
+    }
+
+    /**
+     * <p>Butterworth high pass filter, each pair of orders is a section, attenuating 6dB per order below the cutoff frequency.</p>
+     *
+     * @param sampleRate      Sample rate of the audio.
+     * @param cutoffFrequency Cutoff frequency, where the output is 3dB lower.
+     * @param order           An even value from 2 to 16.
+     * @return A cascade of {@link HighPass} sections.
+     */
+    public static BiquadCascade highPass(int sampleRate, double cutoffFrequency, int order) {
+        final Biquad[] sections = new Biquad[sectionCount(order)];
+
+        for (int i = 0; i < sections.length; i++) {
+            final HighPass highPass = new HighPass(sampleRate);
+            highPass.setCutoffFrequency(cutoffFrequency);
+            highPass.setResonance(butterworthQ(i, order));
+            sections[i] = highPass;
+        }
+
+        return new BiquadCascade(sections);
+    }
+
+    public int getSectionCount() {
+        return sections.length;
+    }
+
+    /**
+     * @param index Position of the section, from 0.
+     * @return The section, changing it changes the cascade.
+     */
+    public Biquad getSection(int index) {
+        return sections[index];
+    }
+
+    /**
+     * <p>Changes the frequency of every section at once, the cutoff frequency of low and high pass sections, or the center frequency of band pass sections.</p>
+     *
+     * @param frequency The frequency.
+     */
+    public void setFrequency(double frequency) {
+        for (Biquad section : sections) {
+            section.frequency = frequency;
+            section.calculateCoefficients();
+        }
+    }
+
+    /**
+     * <p>Moves the frequency of every section to a new value over the smoothing time of each one of them, see {@link Biquad#setSmoothingTime(double)}.</p>
+     *
+     * @param frequency The frequency to reach.
+     */
+    public void setFrequencyTarget(double frequency) {
+        for (Biquad section : sections) {
+            section.frequency = frequency;
+            section.calculateTargetCoefficients();
+        }
+    }
+
+    @Override
+    public double apply(double sample) {
+        return apply(sample, 0);
+    }
+
+    @Override
+    public double apply(double sample, int channel) {
+        final int side = (channel == 0) ? 0 : 1;
+        int index = (channel == 0) ? 0 : rightOffset;
+        double y = sample;
+
+        for (Biquad section : sections) {
+            y = section.apply(y, side, state, index);
+            index += 2;
+        }
+
+        return y;
+    }
+
+    @Override
+    public void process(double[] buffer, int offset, int length) {
+        process(buffer, offset, length, 0);
+    }
+
+    @Override
+    public void process(double[] buffer, int offset, int length, int channel) {
+        final int side = (channel == 0) ? 0 : 1;
+        int index = (channel == 0) ? 0 : rightOffset;
+        int section = 0;
+
+        for (; section + 1 < sections.length; section += 2) {
+            // sections moving towards a target are processed one at a time, with their ramps
+            if (sections[section].isRamping(side) || sections[section + 1].isRamping(side)) {
+                sections[section].process(buffer, offset, length, side, state, index);
+                sections[section + 1].process(buffer, offset, length, side, state, index + 2);
+            } else {
+                processPair(buffer, offset, length, sections[section], sections[section + 1], index);
+            }
+
+            index += 4;
+        }
+
+        if (section < sections.length) {
+            sections[section].process(buffer, offset, length, side, state, index);
+        }
+    }
+
+    private void processPair(double[] buffer, int offset, int length, Biquad first, Biquad second, int index) {
+        final double firstB0 = first.b0, firstB1 = first.b1, firstB2 = first.b2, firstA1 = first.a1, firstA2 = first.a2;
+        final double secondB0 = second.b0, secondB1 = second.b1, secondB2 = second.b2, secondA1 = second.a1, secondA2 = second.a2;
+        double firstZ1 = state[index];
+        double firstZ2 = state[index + 1];
+        double secondZ1 = state[index + 2];
+        double secondZ2 = state[index + 3];
+        double x;
+        double y;
+        double output;
+
+        for (int i = offset; i < offset + length; i++) {
+            x = buffer[i];
+            y = firstB0 * x + firstZ1;
+            firstZ1 = firstB1 * x + firstZ2 - firstA1 * y;
+            firstZ2 = firstB2 * x - firstA2 * y;
+
+            output = secondB0 * y + secondZ1;
+            secondZ1 = secondB1 * y + secondZ2 - secondA1 * output;
+            secondZ2 = secondB2 * y - secondA2 * output;
+            buffer[i] = output;
+        }
+
+        state[index] = firstZ1;
+        state[index + 1] = firstZ2;
+        state[index + 2] = secondZ1;
+        state[index + 3] = secondZ2;
+    }
+
+    private static int sectionCount(int order) {
+        if ((order < 2) || (order > 16) || ((order % 2) != 0)) {
+            throw new IllegalArgumentException("Order must be an even value from 2 to 16, found " + order);
+        }
+
+        return order / 2;
+    }
+
+    // each section takes a pair of poles of the butterworth polynomial
+    private static double butterworthQ(int section, int order) {
+        return 1 / (2 * Math.sin(Math.PI * (2 * section + 1) / (2 * order)));
+    }
+
+}
@@ -4,4 +4,50 @@ public interface Filter {
 
     double apply(double sample);
 
+    /**
+     * <p>Applies the filter on one of the channels of a stereo signal, filters that depend on previous samples keep them separately for each channel.</p>
+     * <p>Channel 0 is the same as {@link #apply(double)}, by default every channel is.</p>
+     *
+     * @param sample  The sample.
+     * @param channel 0 for left, 1 for right.
+     * @return The filtered sample.
+     */
+    default double apply(double sample, int channel) {
+        return apply(sample);
+    }
+
+    /**
+     * <p>Applies the filter on a block of samples, in place.</p>
+     * <p>By default calls {@link #apply(double)} for each sample, filters can replace it with a faster loop producing the same output.</p>
+     *
+     * @param buffer The samples.
+     * @param offset Position of the first sample.
+     * @param length How many samples are going to be filtered.
+     */
+    default void process(double[] buffer, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            buffer[i] = apply(buffer[i]);
+        }
+    }
+
+    /**
+     * <p>Same as {@link #process(double[], int, int)}, for one of the channels of a stereo signal.</p>
+     *
+     * @param buffer  The samples.
+     * @param offset  Position of the first sample.
+     * @param length  How many samples are going to be filtered.
+     * @param channel 0 for left, 1 for right.
+     * @see #apply(double, int)
+     */
+    default void process(double[] buffer, int offset, int length, int channel) {
+        if (channel == 0) {
+            process(buffer, offset, length);
+            return;
+        }
+
+        for (int i = offset; i < offset + length; i++) {
+            buffer[i] = apply(buffer[i], channel);
+        }
+    }
+
 }
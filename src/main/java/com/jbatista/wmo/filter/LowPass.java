@@ -33,6 +33,20 @@ public class LowPass extends Biquad {
         return q;
     }
 
+    /**
+     * <p>Moves the cutoff frequency and the resonance to new values over the {@link #setSmoothingTime(double) smoothing time},
+     * calculating the coefficients once for both.</p>
+     * <p>Meant to be called once for each block when the parameters are modulated, a new target starts from wherever the previous one was.</p>
+     *
+     * @param cutoffFrequency The cutoff frequency to reach.
+     * @param resonance The resonance to reach.
+     */
+    public void setTarget(double cutoffFrequency, double resonance) {
+        this.frequency = cutoffFrequency;
+        this.q = resonance;
+        calculateTargetCoefficients();
+    }
+
     @Override
     protected void calculateCoefficients() {
         omega = MathFunctions.TAU * frequency / sampleRate;
@@ -0,0 +1,332 @@
+package com.jbatista.wmo.midi;
+
+import com.jbatista.wmo.util.Mixer;
+import com.jbatista.wmo.util.PcmEncoding;
+import com.jbatista.wmo.util.WavWriter;
+import com.jbatista.wmo.util.WorkerPool;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.DoubleConsumer;
+
+/**
+ * <p>Renders a MIDI {@link Sequence} to a WAV file as fast as possible, without a sequencer running in real time.</p>
+ * <p>The events of every track are merged and placed on the exact frame given by the tempo map of the sequence,
+ * then played by a {@link WmoReceiver}, one instrument per channel, while its mixer is rendered in blocks and written to the file by a {@link WavWriter} as they are produced.</p>
+ * <p>Channels are rendered in parallel when a {@link #setWorkerPool(WorkerPool) worker pool} is defined.</p>
+ * <p>Each call to {@link #render(Sequence, File)} starts with fresh instruments, a renderer can be reused but not shared by threads rendering at the same time.</p>
+ */
+public class SequenceRenderer {
+
+    private static final int BLOCK_FRAMES = 1024;
+    private static final int DEFAULT_TEMPO = 500000;
+
+    private final WmoMidiDevice wmoMidiDevice;
+    private final int sampleRate;
+
+    private WorkerPool workerPool;
+    private PcmEncoding encoding = PcmEncoding.PCM_16;
+    private boolean memoryMapped;
+    private double masterGain = 1;
+    private double tail = 2;
+
+    /**
+     * @param wmoMidiDevice Provides the sample rate and the sound bank used by program changes.
+     */
+    public SequenceRenderer(WmoMidiDevice wmoMidiDevice) {
+        this.wmoMidiDevice = wmoMidiDevice;
+        this.sampleRate = wmoMidiDevice.sampleRate;
+    }
+
+    public WorkerPool getWorkerPool() {
+        return workerPool;
+    }
+
+    /**
+     * <p>Defines the threads used to render the channels.</p>
+     * <p>Defaults to <b>null</b>, every channel is rendered on the calling thread.</p>
+     *
+     * @param workerPool A pool, can be shared with other renderers.
+     * @see Mixer#setWorkerPool(WorkerPool)
+     */
+    public void setWorkerPool(WorkerPool workerPool) {
+        this.workerPool = workerPool;
+    }
+
+    public PcmEncoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * <p>Defines how the samples are stored on the file.</p>
+     * <p>Defaults to <b>{@link PcmEncoding#PCM_16}</b>.</p>
+     *
+     * @param encoding The encoding.
+     */
+    public void setEncoding(PcmEncoding encoding) {
+        this.encoding = encoding;
+    }
+
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * <p>Defaults to <b>false</b>.</p>
+     *
+     * @param memoryMapped Whether the file is written through memory mapped regions.
+     * @see WavWriter#WavWriter(java.nio.file.Path, int, int, PcmEncoding, boolean)
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    public double getMasterGain() {
+        return masterGain;
+    }
+
+    /**
+     * <p>Defaults to <b>1</b>.</p>
+     *
+     * @param masterGain A value from 0 to 2.
+     * @see Mixer#setMasterGain(double)
+     */
+    public void setMasterGain(double masterGain) {
+        this.masterGain = Math.max(0, Math.min(masterGain, 2));
+    }
+
+    public double getTail() {
+        return tail;
+    }
+
+    /**
+     * <p>Defines for how long the rendering goes on after the end of the sequence, so released keys can fade out.</p>
+     * <p>Defaults to <b>2</b> seconds.</p>
+     *
+     * @param tail A value from 0 to 60, in seconds.
+     */
+    public void setTail(double tail) {
+        this.tail = Math.max(0, Math.min(tail, 60));
+    }
+
+    /**
+     * @param sequence The sequence, type 0 or 1.
+     * @param output   The WAV file, overwritten if it exists.
+     * @return The amount of audio produced, and how long it took.
+     * @throws IOException If the file could not be written.
+     * @see #render(Sequence, File, DoubleConsumer)
+     */
+    public Report render(Sequence sequence, File output) throws IOException {
+        return render(sequence, output, null);
+    }
+
+    /**
+     * <p>Renders the sequence to a stereo WAV file, on the calling thread, channels are placed by their pan controller.</p>
+     *
+     * @param sequence The sequence, type 0 or 1.
+     * @param output   The WAV file, overwritten if it exists.
+     * @param progress Receives the fraction rendered so far, from 0 to 1, after every block. Can be null.
+     * @return The amount of audio produced, and how long it took.
+     * @throws IOException If the file could not be written.
+     */
+    public Report render(Sequence sequence, File output, DoubleConsumer progress) throws IOException {
+        final long start = System.nanoTime();
+        final Performance performance = new Performance(sequence);
+        int frames;
+
+        try (final WavWriter writer = new WavWriter(output.toPath(), sampleRate, 2, encoding, memoryMapped)) {
+            while ((frames = performance.renderBlock()) > 0) {
+                writer.write(performance.block, 0, frames);
+
+                if (progress != null) {
+                    progress.accept((double) performance.position / performance.totalFrames);
+                }
+            }
+        }
+
+        return new Report(performance.totalFrames, sampleRate, System.nanoTime() - start);
+    }
+
+    /**
+     * <p>Renders a MIDI file from the command line, printing the progress and the realtime factor.</p>
+     * <p>Arguments are the MIDI file, the WAV file, and optionally a sound bank and the sample rate, which defaults to 44100.</p>
+     *
+     * @param args The arguments.
+     * @throws IOException              If a file could not be read or written.
+     * @throws InvalidMidiDataException If the MIDI file is not valid.
+     */
+    public static void main(String[] args) throws IOException, InvalidMidiDataException {
+        if (args.length < 2) {
+            System.out.println("Usage: SequenceRenderer <input.mid> <output.wav> [sound bank] [sample rate]");
+            return;
+        }
+
+        final WmoMidiDevice wmoMidiDevice = new WmoMidiDevice((args.length > 3) ? Integer.parseInt(args[3]) : 44100);
+        if (args.length > 2) {
+            wmoMidiDevice.setSoundBank(new File(args[2]));
+        }
+
+        final SequenceRenderer renderer = new SequenceRenderer(wmoMidiDevice);
+        final int[] percentage = new int[]{-1};
+
+        try (final WorkerPool pool = new WorkerPool(Runtime.getRuntime().availableProcessors())) {
+            renderer.setWorkerPool(pool);
+
+            final Report report = renderer.render(MidiSystem.getSequence(new File(args[0])), new File(args[1]), fraction -> {
+                if ((int) (fraction * 100) != percentage[0]) {
+                    percentage[0] = (int) (fraction * 100);
+                    System.out.print("\r" + percentage[0] + "%");
+                }
+            });
+
+            System.out.println();
+            System.out.println(report);
+        }
+    }
+
+    /**
+     * <p>Result of a rendering.</p>
+     */
+    public static final class Report {
+
+        private final long frames;
+        private final int sampleRate;
+        private final long elapsedNanos;
+
+        Report(long frames, int sampleRate, long elapsedNanos) {
+            this.frames = frames;
+            this.sampleRate = sampleRate;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getFrames() {
+            return frames;
+        }
+
+        /**
+         * @return Duration of the audio produced, in seconds.
+         */
+        public double getDuration() {
+            return (double) frames / sampleRate;
+        }
+
+        /**
+         * @return Time taken to render, in seconds.
+         */
+        public double getElapsed() {
+            return elapsedNanos / 1e9;
+        }
+
+        /**
+         * @return How many seconds of audio were produced per second of rendering, above 1 is faster than real time.
+         */
+        public double getRealtimeFactor() {
+            return getDuration() / Math.max(getElapsed(), 1e-9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d frames, %.2fs of audio rendered in %.2fs, %.1fx realtime", frames, getDuration(), getElapsed(), getRealtimeFactor());
+        }
+
+    }
+
+    // plays the sequence one block at a time, so the whole song is never in memory
+    private final class Performance {
+
+        private final WmoReceiver receiver = new WmoReceiver(wmoMidiDevice, sampleRate);
+        private final Mixer mixer = receiver.getMixer();
+
+        // channel messages of every track, by frame
+        private final MidiMessage[] messages;
+        private final long[] frames;
+        private final long totalFrames;
+
+        private final double[] block = new double[BLOCK_FRAMES * 2];
+        private int nextMessage;
+        private long position;
+
+        Performance(Sequence sequence) {
+            mixer.setWorkerPool(workerPool);
+            mixer.setMasterGain(masterGain);
+
+            final List<MidiEvent> events = new ArrayList<>();
+            for (Track track : sequence.getTracks()) {
+                for (int i = 0; i < track.size(); i++) {
+                    events.add(track.get(i));
+                }
+            }
+
+            // stable, events on the same tick keep the order of the tracks
+            events.sort(Comparator.comparingLong(MidiEvent::getTick));
+
+            final List<MidiMessage> channelMessages = new ArrayList<>();
+            final long[] messageFrames = new long[events.size()];
+
+            // PPQ sequences follow the tempo events, SMPTE sequences have a fixed tick duration
+            final boolean ppq = sequence.getDivisionType() == Sequence.PPQ;
+            final int resolution = sequence.getResolution();
+            double tickMicroseconds = ppq
+                    ? (double) DEFAULT_TEMPO / resolution
+                    : 1000000.0 / (sequence.getDivisionType() * resolution);
+            double microseconds = 0;
+            long tick = 0;
+
+            for (MidiEvent event : events) {
+                microseconds += (event.getTick() - tick) * tickMicroseconds;
+                tick = event.getTick();
+
+                final MidiMessage message = event.getMessage();
+
+                if (message instanceof ShortMessage) {
+                    messageFrames[channelMessages.size()] = Math.round(microseconds * sampleRate / 1000000);
+                    channelMessages.add(message);
+                } else if (ppq && (message instanceof MetaMessage) && (((MetaMessage) message).getType() == 0x51)) {
+                    final byte[] data = ((MetaMessage) message).getData();
+                    tickMicroseconds = (double) (((data[0] & 0xFF) << 16) | ((data[1] & 0xFF) << 8) | (data[2] & 0xFF)) / resolution;
+                }
+            }
+
+            messages = channelMessages.toArray(new MidiMessage[0]);
+            frames = messageFrames;
+            totalFrames = Math.round(microseconds * sampleRate / 1000000) + Math.round(tail * sampleRate);
+        }
+
+        // returns how many frames were rendered, 0 at the end
+        private int renderBlock() {
+            if (position >= totalFrames) {
+                return 0;
+            }
+
+            int blockFrames = (int) Math.min(BLOCK_FRAMES, totalFrames - position);
+
+            // messages for this block are queued before rendering it, if an instrument can't take more the block ends at that message
+            while ((nextMessage < messages.length) && (frames[nextMessage] < position + blockFrames)) {
+                if (!receiver.dispatch(messages[nextMessage], frames[nextMessage])) {
+                    blockFrames = (int) Math.max(1, frames[nextMessage] - position);
+                    break;
+                }
+
+                nextMessage++;
+            }
+
+            mixer.renderInterleaved(block, 0, blockFrames);
+            position += blockFrames;
+
+            return blockFrames;
+        }
+
+    }
+
+}
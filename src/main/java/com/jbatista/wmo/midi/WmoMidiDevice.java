@@ -14,7 +14,7 @@ public class WmoMidiDevice implements MidiDevice {
 
     private static final Info INFO = new WmoInfo();
     private final List<Receiver> receivers = new ArrayList<>();
-    private final int sampleRate;
+    final int sampleRate;
     byte[] soundBank = new byte[0];
 
     public WmoMidiDevice(int sampleRate) {
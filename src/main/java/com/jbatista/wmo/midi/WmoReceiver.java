@@ -9,14 +9,25 @@ import javax.sound.midi.MidiMessage;
 import javax.sound.midi.Receiver;
 import java.util.Arrays;
 
+/**
+ * <p>Plays MIDI messages on 16 instruments, one per channel, mixed by a {@link Mixer}.</p>
+ * <p>Messages are queued on the instruments, and applied by the thread rendering the mixer.
+ * Messages that have a time stamp are placed on the exact frame they should sound, relative to each other, delayed by the {@link #setLatency(int) latency}.</p>
+ */
 public class WmoReceiver implements Receiver {
 
     private final WmoMidiDevice wmoMidiDevice;
     private final Instrument[] channels = new Instrument[16];
     private final Mixer mixer;
+    private final int sampleRate;
+
+    // converts time stamps to frame positions, defined by the first message and redefined when the clocks drift apart
+    private int latency = 1024;
+    private long frameOffset = Long.MIN_VALUE;
 
     WmoReceiver(WmoMidiDevice wmoMidiDevice, int sampleRate) {
         this.wmoMidiDevice = wmoMidiDevice;
+        this.sampleRate = sampleRate;
 
         for (int i = 0; i < 16; i++) {
             channels[i] = new Instrument(sampleRate);
@@ -29,56 +40,85 @@ public class WmoReceiver implements Receiver {
         return mixer;
     }
 
+    public int getLatency() {
+        return latency;
+    }
+
+    /**
+     * <p>Defines how many frames after the frame being rendered a message with a time stamp is played.</p>
+     * <p>Must be at least the size of the blocks rendered by the mixer, otherwise messages arrive after their frame was rendered, and are played at the start of the next block.</p>
+     * <p>Defaults to <b>1024</b>.</p>
+     *
+     * @param latency A value from 0 to the sample rate.
+     */
+    public void setLatency(int latency) {
+        this.latency = Math.max(0, Math.min(latency, sampleRate));
+        this.frameOffset = Long.MIN_VALUE;
+    }
+
     @Override
     public void send(MidiMessage message, long timeStamp) {
+        dispatch(message, toFrame(timeStamp));
+    }
+
+    // queues the message for the given frame of the instruments, false if the instrument of the channel has too many events waiting
+    boolean dispatch(MidiMessage message, long frame) {
         byte[] messageData = message.getMessage();
         int status = messageData[0] & 0xF0;
         int channel = messageData[0] & 0x0F;
 
         switch (status) {
             case 0x80:
-                channels[channel].releaseKey(messageData[1] + 24); // TODO velocity
-                break;
+                return channels[channel].queueReleaseKey(messageData[1] + 24, frame); // TODO velocity
 
             case 0x90:
                 if (messageData[2] == 0) { // velocity 0 is NOTE OFF
-                    channels[channel].releaseKey(messageData[1] + 24);
-                } else {
-                    channels[channel].pressKey(messageData[1] + 24); // TODO velocity
+                    return channels[channel].queueReleaseKey(messageData[1] + 24, frame);
                 }
-                break;
+
+                return channels[channel].queuePressKey(messageData[1] + 24, frame); // TODO velocity
 
             case 0xB0:
-                switch (messageData[1]) {
-                    case 0x7B:
-                        channels[channel].releaseAllKeys();
-                        break;
-
-                    default:
-                        // message not implemented
-                        break;
-                }
-                break;
+                return channels[channel].queueControlChange(messageData[1], messageData[2], frame);
 
             case 0xC0:
-                channels[channel].setPreset(buildPreset(messageData[1]));
-                break;
+                return channels[channel].queuePreset(buildPreset(messageData[1]), frame);
+
+            case 0xE0:
+                return channels[channel].queuePitchBend(((messageData[2] << 7) | messageData[1]) - 8192, frame);
 
             case 0xFF:
                 close();
-                break;
+                return true;
 
             default:
                 // message not implemented
-                break;
+                return true;
         }
     }
 
+    // can be called by any thread, so it doesn't use the queues, which only take messages from the thread calling send
     @Override
     public void close() {
         for (int i = 0; i < 16; i++) {
-            channels[i].releaseAllKeys();
+            channels[i].requestReleaseAllKeys();
+        }
+    }
+
+    // time stamps are in microseconds, -1 when the device does not provide them, in which case the message is played as soon as possible
+    private long toFrame(long timeStamp) {
+        if (timeStamp < 0) {
+            return Long.MIN_VALUE;
         }
+
+        final long position = channels[0].getFramePosition();
+        final long frames = timeStamp * sampleRate / 1000000;
+
+        if ((frameOffset == Long.MIN_VALUE) || (frames + frameOffset < position) || (frames + frameOffset > position + latency + sampleRate)) {
+            frameOffset = position + latency - frames;
+        }
+
+        return frames + frameOffset;
     }
 
     private InstrumentPreset buildPreset(int id) {
@@ -17,8 +17,8 @@ import com.jbatista.wmo.WaveForm;
 public class InstrumentPreset {
 
     private String name = "  ------  ";
-    private double gain = 1;
-    private int transpose = 0;
+    private volatile double gain = 1;
+    private volatile int transpose = 0;
     private int feedback = 0;
 
     private int pitchAttackLevel = 50;
@@ -44,6 +44,10 @@ public class InstrumentPreset {
 
     private AlgorithmPreset algorithm = AlgorithmPreset.ALGO_1_OSC_1;
 
+    // changes on every setter of a parameter with derived values, tells when they have to be calculated again,
+    // the name, the gain and the transposition are read as they are, and don't change it
+    private volatile int version;
+
     private final OscillatorPreset[] oscillatorPresets = new OscillatorPreset[]{
             new OscillatorPreset(0), new OscillatorPreset(1), new OscillatorPreset(2),
             new OscillatorPreset(3), new OscillatorPreset(4), new OscillatorPreset(5)};
@@ -90,6 +94,17 @@ public class InstrumentPreset {
         }
     }
 
+    /**
+     * <p>Number of changes made to this preset, it is incremented by every setter, except the ones of the name, the gain and the transposition,
+     * which are used as they are, so they can be changed continuously without the preset being compiled again.</p>
+     * <p>Used by the {@link com.jbatista.wmo.synthesis.Instrument} to apply changes made while it is playing.</p>
+     *
+     * @return A value that changes every time a parameter other than the name, the gain or the transposition is set.
+     */
+    public int getVersion() {
+        return version;
+    }
+
     @Override
     public String toString() {
         return name;
@@ -149,6 +164,7 @@ public class InstrumentPreset {
      */
     public void setFeedback(int feedback) {
         this.feedback = Math.max(0, Math.min(feedback, 7));
+        version++;
     }
 
     public int getPitchAttackLevel() {
@@ -164,6 +180,7 @@ public class InstrumentPreset {
      */
     public void setPitchAttackLevel(int pitchAttackLevel) {
         this.pitchAttackLevel = Math.max(0, Math.min(pitchAttackLevel, 99));
+        version++;
     }
 
     public int getPitchDecayLevel() {
@@ -179,6 +196,7 @@ public class InstrumentPreset {
      */
     public void setPitchDecayLevel(int pitchDecayLevel) {
         this.pitchDecayLevel = Math.max(0, Math.min(pitchDecayLevel, 99));
+        version++;
     }
 
     public int getPitchSustainLevel() {
@@ -194,6 +212,7 @@ public class InstrumentPreset {
      */
     public void setPitchSustainLevel(int pitchSustainLevel) {
         this.pitchSustainLevel = Math.max(0, Math.min(pitchSustainLevel, 99));
+        version++;
     }
 
     public int getPitchReleaseLevel() {
@@ -209,6 +228,7 @@ public class InstrumentPreset {
      */
     public void setPitchReleaseLevel(int pitchReleaseLevel) {
         this.pitchReleaseLevel = Math.max(0, Math.min(pitchReleaseLevel, 99));
+        version++;
     }
 
     public int getPitchAttackSpeed() {
@@ -223,6 +243,7 @@ public class InstrumentPreset {
      */
     public void setPitchAttackSpeed(int pitchAttackSpeed) {
         this.pitchAttackSpeed = Math.max(0, Math.min(pitchAttackSpeed, 99));
+        version++;
     }
 
     public int getPitchDecaySpeed() {
@@ -237,6 +258,7 @@ public class InstrumentPreset {
      */
     public void setPitchDecaySpeed(int pitchDecaySpeed) {
         this.pitchDecaySpeed = Math.max(0, Math.min(pitchDecaySpeed, 99));
+        version++;
     }
 
     public int getPitchSustainSpeed() {
@@ -251,6 +273,7 @@ public class InstrumentPreset {
      */
     public void setPitchSustainSpeed(int pitchSustainSpeed) {
         this.pitchSustainSpeed = Math.max(0, Math.min(pitchSustainSpeed, 99));
+        version++;
     }
 
     public int getPitchReleaseSpeed() {
@@ -265,6 +288,7 @@ public class InstrumentPreset {
      */
     public void setPitchReleaseSpeed(int pitchReleaseSpeed) {
         this.pitchReleaseSpeed = Math.max(0, Math.min(pitchReleaseSpeed, 99));
+        version++;
     }
 
     public boolean isOscillatorKeySync() {
@@ -279,6 +303,7 @@ public class InstrumentPreset {
      */
     public void setOscillatorKeySync(boolean oscillatorKeySync) {
         this.oscillatorKeySync = oscillatorKeySync;
+        version++;
     }
 
     public boolean isLfoKeySync() {
@@ -293,6 +318,7 @@ public class InstrumentPreset {
      */
     public void setLfoKeySync(boolean lfoKeySync) {
         this.lfoKeySync = lfoKeySync;
+        version++;
     }
 
     public int getLfoSpeed() {
@@ -307,6 +333,7 @@ public class InstrumentPreset {
      */
     public void setLfoSpeed(int lfoSpeed) {
         this.lfoSpeed = Math.max(0, Math.min(lfoSpeed, 99));
+        version++;
     }
 
     public int getLfoDelay() {
@@ -321,6 +348,7 @@ public class InstrumentPreset {
      */
     public void setLfoDelay(int lfoDelay) {
         this.lfoDelay = Math.max(0, Math.min(lfoDelay, 99));
+        version++;
     }
 
     public int getLfoPmDepth() {
@@ -335,6 +363,7 @@ public class InstrumentPreset {
      */
     public void setLfoPmDepth(int lfoPmDepth) {
         this.lfoPmDepth = Math.max(0, Math.min(lfoPmDepth, 99));
+        version++;
     }
 
     public int getLfoAmDepth() {
@@ -349,6 +378,7 @@ public class InstrumentPreset {
      */
     public void setLfoAmDepth(int lfoAmDepth) {
         this.lfoAmDepth = Math.max(0, Math.min(lfoAmDepth, 99));
+        version++;
     }
 
     public int getLfoPModeSensitivity() {
@@ -363,6 +393,7 @@ public class InstrumentPreset {
      */
     public void setLfoPModeSensitivity(int lfoPModeSensitivity) {
         this.lfoPModeSensitivity = Math.max(0, Math.min(lfoPModeSensitivity, 7));
+        version++;
     }
 
     public WaveForm getLfoWave() {
@@ -377,6 +408,7 @@ public class InstrumentPreset {
      */
     public void setLfoWave(WaveForm lfoWave) {
         this.lfoWave = lfoWave;
+        version++;
     }
 
     public AlgorithmPreset getAlgorithm() {
@@ -391,6 +423,7 @@ public class InstrumentPreset {
      */
     public void setAlgorithm(AlgorithmPreset algorithm) {
         this.algorithm = algorithm;
+        version++;
     }
 
     public OscillatorPreset[] getOscillatorPresets() {
@@ -404,6 +437,7 @@ public class InstrumentPreset {
      */
     public void addOscillatorPreset(OscillatorPreset oscillatorPreset) {
         this.oscillatorPresets[oscillatorPreset.getId()] = oscillatorPreset;
+        version++;
     }
 
 }
@@ -21,6 +21,7 @@ public class OscillatorPreset {
     private int id = 0;
 
     private WaveForm waveForm = WaveForm.SINE;
+    private boolean bandLimited = false;
 
     private boolean mute = false;
 
@@ -49,6 +50,9 @@ public class OscillatorPreset {
     private int breakpointRightDepth = 0;
     private int speedScaling = 0;
 
+    // changes on every setter, tells when derived values have to be calculated again
+    private volatile int version;
+
     /**
      * @param id An unique ID, from 0 to 5, used to identify de corresponding oscillator on the algorithm.
      * @see com.jbatista.wmo.synthesis.Algorithm
@@ -66,6 +70,7 @@ public class OscillatorPreset {
         this.id = oscillatorPreset.id;
 
         this.waveForm = oscillatorPreset.waveForm;
+        this.bandLimited = oscillatorPreset.bandLimited;
 
         this.mute = oscillatorPreset.mute;
 
@@ -95,6 +100,16 @@ public class OscillatorPreset {
         this.speedScaling = oscillatorPreset.speedScaling;
     }
 
+    /**
+     * <p>Number of changes made to this preset, it is incremented by every setter.</p>
+     * <p>Used by the {@link com.jbatista.wmo.synthesis.Instrument} to apply changes made while it is playing.</p>
+     *
+     * @return A value that changes every time a parameter is set.
+     */
+    public int getVersion() {
+        return version;
+    }
+
     public int getId() {
         return id;
     }
@@ -112,6 +127,24 @@ public class OscillatorPreset {
      */
     public void setWaveForm(WaveForm waveForm) {
         this.waveForm = waveForm;
+        version++;
+    }
+
+    public boolean isBandLimited() {
+        return bandLimited;
+    }
+
+    /**
+     * Reduces the aliasing of square, triangle, and sawtooth waves, at a small processing cost.
+     * <p>Has no effect on {@link WaveForm#SINE} and {@link WaveForm#WHITE_NOISE}.</p>
+     * <p>Defaults to <b>false</b>.</p>
+     *
+     * @param bandLimited boolean
+     * @see com.jbatista.wmo.util.Dsp#bandLimitedOscillator
+     */
+    public void setBandLimited(boolean bandLimited) {
+        this.bandLimited = bandLimited;
+        version++;
     }
 
     public boolean isMute() {
@@ -120,6 +153,7 @@ public class OscillatorPreset {
 
     public void setMute(boolean mute) {
         this.mute = mute;
+        version++;
     }
 
     public double getFrequencyRatio() {
@@ -135,6 +169,7 @@ public class OscillatorPreset {
      */
     public void setFrequencyRatio(double frequencyRatio) {
         this.frequencyRatio = Math.max(0, Math.min(frequencyRatio, 31));
+        version++;
     }
 
     public boolean isFixedFrequency() {
@@ -152,6 +187,7 @@ public class OscillatorPreset {
      */
     public void setFixedFrequency(boolean fixedFrequency) {
         this.fixedFrequency = fixedFrequency;
+        version++;
     }
 
     public int getFrequencyFine() {
@@ -167,6 +203,7 @@ public class OscillatorPreset {
      */
     public void setFrequencyFine(int frequencyFine) {
         this.frequencyFine = Math.max(0, Math.min(frequencyFine, 99));
+        version++;
     }
 
     public int getFrequencyDetune() {
@@ -181,6 +218,7 @@ public class OscillatorPreset {
      */
     public void setFrequencyDetune(int frequencyDetune) {
         this.frequencyDetune = Math.max(-7, Math.min(frequencyDetune, 7));
+        version++;
     }
 
     public int getOutputLevel() {
@@ -195,6 +233,7 @@ public class OscillatorPreset {
      */
     public void setOutputLevel(int outputLevel) {
         this.outputLevel = Math.max(0, Math.min(outputLevel, 99));
+        version++;
     }
 
     public int getVelocitySensitivity() {
@@ -210,6 +249,7 @@ public class OscillatorPreset {
      */
     public void setVelocitySensitivity(int velocitySensitivity) {
         this.velocitySensitivity = Math.max(0, Math.min(velocitySensitivity, 7));
+        version++;
     }
 
     public int getAmSensitivity() {
@@ -224,6 +264,7 @@ public class OscillatorPreset {
      */
     public void setAmSensitivity(int amSensitivity) {
         this.amSensitivity = Math.max(0, Math.min(amSensitivity, 3));
+        version++;
     }
 
     public int getAttackLevel() {
@@ -239,6 +280,7 @@ public class OscillatorPreset {
      */
     public void setAttackLevel(int attackLevel) {
         this.attackLevel = Math.max(0, Math.min(attackLevel, 99));
+        version++;
     }
 
     public int getDecayLevel() {
@@ -254,6 +296,7 @@ public class OscillatorPreset {
      */
     public void setDecayLevel(int decayLevel) {
         this.decayLevel = Math.max(0, Math.min(decayLevel, 99));
+        version++;
     }
 
     public int getSustainLevel() {
@@ -269,6 +312,7 @@ public class OscillatorPreset {
      */
     public void setSustainLevel(int sustainLevel) {
         this.sustainLevel = Math.max(0, Math.min(sustainLevel, 99));
+        version++;
     }
 
     public int getReleaseLevel() {
@@ -285,6 +329,7 @@ public class OscillatorPreset {
      */
     public void setReleaseLevel(int releaseLevel) {
         this.releaseLevel = Math.max(0, Math.min(releaseLevel, 99));
+        version++;
     }
 
     public int getAttackSpeed() {
@@ -300,6 +345,7 @@ public class OscillatorPreset {
      */
     public void setAttackSpeed(int attackSpeed) {
         this.attackSpeed = Math.max(0, Math.min(attackSpeed, 99));
+        version++;
     }
 
     public int getDecaySpeed() {
@@ -315,6 +361,7 @@ public class OscillatorPreset {
      */
     public void setDecaySpeed(int decaySpeed) {
         this.decaySpeed = Math.max(0, Math.min(decaySpeed, 99));
+        version++;
     }
 
     public int getSustainSpeed() {
@@ -330,6 +377,7 @@ public class OscillatorPreset {
      */
     public void setSustainSpeed(int sustainSpeed) {
         this.sustainSpeed = Math.max(0, Math.min(sustainSpeed, 99));
+        version++;
     }
 
     public int getReleaseSpeed() {
@@ -345,6 +393,7 @@ public class OscillatorPreset {
      */
     public void setReleaseSpeed(int releaseSpeed) {
         this.releaseSpeed = Math.max(0, Math.min(releaseSpeed, 99));
+        version++;
     }
 
     public KeyboardNote getBreakpointNote() {
@@ -365,6 +414,7 @@ public class OscillatorPreset {
         } else {
             this.breakpointNote = breakpointNote;
         }
+        version++;
     }
 
     public TransitionCurve getBreakpointLeftCurve() {
@@ -379,6 +429,7 @@ public class OscillatorPreset {
      */
     public void setBreakpointLeftCurve(TransitionCurve breakpointLeftCurve) {
         this.breakpointLeftCurve = breakpointLeftCurve;
+        version++;
     }
 
     public TransitionCurve getBreakpointRightCurve() {
@@ -393,6 +444,7 @@ public class OscillatorPreset {
      */
     public void setBreakpointRightCurve(TransitionCurve breakpointRightCurve) {
         this.breakpointRightCurve = breakpointRightCurve;
+        version++;
     }
 
     public int getBreakpointLeftDepth() {
@@ -407,6 +459,7 @@ public class OscillatorPreset {
      */
     public void setBreakpointLeftDepth(int breakpointLeftDepth) {
         this.breakpointLeftDepth = Math.max(0, Math.min(breakpointLeftDepth, 99));
+        version++;
     }
 
     public int getBreakpointRightDepth() {
@@ -421,6 +474,7 @@ public class OscillatorPreset {
      */
     public void setBreakpointRightDepth(int breakpointRightDepth) {
         this.breakpointRightDepth = Math.max(0, Math.min(breakpointRightDepth, 99));
+        version++;
     }
 
     public int getSpeedScaling() {
@@ -434,6 +488,7 @@ public class OscillatorPreset {
      */
     public void setSpeedScaling(int speedScaling) {
         this.speedScaling = Math.max(0, Math.min(speedScaling, 7));
+        version++;
     }
 
 }
@@ -1,22 +1,27 @@
 package com.jbatista.wmo.synthesis;
 
+import com.jbatista.wmo.Engine;
 import com.jbatista.wmo.preset.AlgorithmPreset;
 
+import java.util.Arrays;
+
 /**
  * <p>Supports the structure of the algorithm used by the {@link Instrument}, creates instances of {@link Oscillator}, obtains PCM data from then.</p>
  * <p>Instances of this class are created by {@link Instrument}.</p>
  *
  * @see Instrument
  * @see AlgorithmPreset
+ * @see AlgorithmSchedule
  * @see Oscillator
  */
 public class Algorithm {
 
+    // frames computed per oscillator at a time, keeps the intermediate buffers small
+    static final int BLOCK_SIZE = 64;
+
     private final Instrument instrument;
-    private final boolean[][] activeCarriers = new boolean[132][6];
-    private final long[] elapsed = new long[132];
-    private double tempSample;
-    private double pitchOffset = 1;
+    // frequency multiplier of every voice, defined by the pitch bend
+    double pitchOffset = 1;
 
     final Oscillator[] oscillators = new Oscillator[6];
 
@@ -28,125 +33,245 @@ public class Algorithm {
         }
     }
 
-    private int[][] getPattern() {
-        return instrument.preset.getAlgorithm().getPattern();
-    }
-
     /**
-     * <p>Sets off the chain of oscillators defined as carriers on the algorithm.</p>
+     * <p>Adds a block of frames of a single voice to the buffer.</p>
+     * <p>Oscillators are evaluated in the order defined by the {@link AlgorithmSchedule}, each one exactly once per frame.</p>
+     *
+     * <p>Keys can be rendered at the same time by different threads, as long as each thread uses its own {@link RenderBuffers}.</p>
      *
-     * @param keyId ID representing an unique key, in the range of 0 to 131.
-     * @return A single audio frame.
-     * @see Oscillator#getSample
-     * @see Instrument#getSample
+     * @param voice   Slot of the voice on the {@link VoicePool}.
+     * @param buffers Intermediate buffers of the calling thread.
+     * @param buffer  The buffer where the frames are going to be added.
+     * @param offset  Position of the buffer where the first frame is added.
+     * @param frames  How many frames are going to be produced.
+     * @return True if the voice still has active carriers after the block.
+     * @see Instrument#render(double[], int, int)
      */
-    double getSample(int keyId) {
-        tempSample = 0;
+    boolean render(int voice, RenderBuffers buffers, double[] buffer, int offset, int frames) {
+        final CompiledPreset compiledPreset = instrument.voices.preset[voice];
+        final AlgorithmSchedule schedule = compiledPreset.schedule;
+
+        if (instrument.engine == Engine.FIXED_POINT) {
+            renderFixed(voice, buffers, schedule, compiledPreset.feedbackShift, buffer, offset, frames);
+        } else {
+            final double feedbackLevel = compiledPreset.feedbackLevel;
+            final double[][] output = buffers.output;
+
+            int length;
+            for (int position = 0; position < frames; position += BLOCK_SIZE) {
+                length = Math.min(BLOCK_SIZE, frames - position);
+
+                renderBlock(voice, buffers, schedule, feedbackLevel, length);
+
+                for (int i = 0; i < length; i++) {
+                    double sample = 0;
+                    for (int carrier : schedule.carriers) {
+                        sample += output[carrier][i];
+                    }
 
-        for (int i = 0; i < getPattern()[0].length; i++) {
-            tempSample += oscillators[getPattern()[0][i]]
-                    .getSample(keyId, pitchOffset, getModulation(keyId, getPattern()[0][i], 0, true), elapsed[keyId]) / 13;
+                    buffer[offset + position + i] += sample * schedule.normalization;
+                }
+            }
+        }
 
-            activeCarriers[keyId][oscillators[getPattern()[0][i]].id] = oscillators[getPattern()[0][i]].isActive(keyId);
+        for (int carriers = schedule.carrierMask; carriers != 0; carriers &= carriers - 1) {
+            if (oscillators[Integer.numberOfTrailingZeros(carriers)].isActive(voice)) {
+                return true;
+            }
         }
 
-        elapsed[keyId] += 1;
+        return false;
+    }
+
+    private void renderBlock(int voice, RenderBuffers buffers, AlgorithmSchedule schedule, double feedbackLevel, int length) {
+        int oscillator;
+
+        for (int index = 0; index < schedule.order.length; index++) {
+            if (index == schedule.loopStart) {
+                renderFeedbackLoop(voice, buffers.output, schedule, feedbackLevel, length);
+                index += schedule.loopLength - 1;
+                continue;
+            }
 
-        return tempSample / (getPattern()[0].length * 13);
+            oscillator = schedule.order[index];
+            sumModulation(buffers, schedule.sources[oscillator], length);
+            oscillators[oscillator].render(voice, pitchOffset, buffers.modulation, buffers.envelope, buffers.output[oscillator], length);
+        }
     }
 
-    // obtain the modulation sample using recursion
-    private double getModulation(int keyId, int oscillator, double modulation, boolean feedbackOn) {
-        for (int i = 2; i < getPattern().length; i++) {
-            if (getPattern()[i][0] == oscillator) {
-                modulation += oscillators[getPattern()[i][1]].getSample(
-                        keyId,
-                        pitchOffset,
-                        getModulation(keyId, getPattern()[i][1], 0, feedbackOn),
-                        elapsed[keyId]);
+    // the feedback loop depends on its own previous frame, so it advances one frame at a time
+    private void renderFeedbackLoop(int voice, double[][] output, AlgorithmSchedule schedule, double feedbackLevel, int length) {
+        final int end = schedule.loopStart + schedule.loopLength;
+        int oscillator;
+        double frameModulation;
+
+        for (int i = 0; i < length; i++) {
+            for (int index = schedule.loopStart; index < end; index++) {
+                oscillator = schedule.order[index];
+
+                frameModulation = 0;
+                for (int source : schedule.sources[oscillator]) {
+                    frameModulation += output[source][i];
+                }
+
+                if (oscillator == schedule.feedbackTarget) {
+                    frameModulation += feedbackLevel * instrument.voices.feedback[voice];
+                }
+
+                output[oscillator][i] = oscillators[oscillator].getSample(voice, pitchOffset, frameModulation);
             }
+
+            instrument.voices.feedback[voice] = output[schedule.feedbackSource][i];
         }
+    }
+
+    private void sumModulation(RenderBuffers buffers, int[] sources, int length) {
+        final double[][] output = buffers.output;
+        final double[] modulation = buffers.modulation;
 
-        // checks if this oscillator receives feedback or not
-        if (feedbackOn && (oscillator == getPattern()[1][0])) {
-            modulation += Math.pow(2, instrument.preset.getFeedback() - 7) * oscillators[getPattern()[1][0]].getSample(
-                    keyId,
-                    pitchOffset,
-                    getModulation(keyId, getPattern()[1][1], 0, false),
-                    elapsed[keyId]);
+        if (sources.length == 0) {
+            Arrays.fill(modulation, 0, length, 0);
+            return;
         }
 
-        return modulation;
+        System.arraycopy(output[sources[0]], 0, modulation, 0, length);
+
+        for (int source = 1; source < sources.length; source++) {
+            for (int i = 0; i < length; i++) {
+                modulation[i] += output[sources[source]][i];
+            }
+        }
+    }
+
+    // everything is calculated with integers, only the sum of the carriers is converted
+    private void renderFixed(int voice, RenderBuffers buffers, AlgorithmSchedule schedule, int feedbackShift, double[] buffer, int offset, int frames) {
+        final int[][] fixedOutput = buffers.fixedOutput;
+        final double normalization = schedule.normalization / FixedPoint.ONE;
+
+        int length;
+        for (int position = 0; position < frames; position += BLOCK_SIZE) {
+            length = Math.min(BLOCK_SIZE, frames - position);
+
+            renderFixedBlock(voice, buffers, schedule, feedbackShift, length);
+
+            for (int i = 0; i < length; i++) {
+                int sample = 0;
+                for (int carrier : schedule.carriers) {
+                    sample += fixedOutput[carrier][i];
+                }
+
+                buffer[offset + position + i] += sample * normalization;
+            }
+        }
+    }
+
+    private void renderFixedBlock(int voice, RenderBuffers buffers, AlgorithmSchedule schedule, int feedbackShift, int length) {
+        final int[][] fixedOutput = buffers.fixedOutput;
+        final int[] fixedModulation = buffers.fixedModulation;
+        final int loopEnd = schedule.loopStart + schedule.loopLength;
+        int oscillator;
+
+        for (int index = 0; index < schedule.order.length; index++) {
+            if (index == schedule.loopStart) {
+                for (int i = 0; i < length; i++) {
+                    for (int member = schedule.loopStart; member < loopEnd; member++) {
+                        oscillator = schedule.order[member];
+
+                        int frameModulation = 0;
+                        for (int source : schedule.sources[oscillator]) {
+                            frameModulation += fixedOutput[source][i];
+                        }
+
+                        if (oscillator == schedule.feedbackTarget) {
+                            frameModulation += instrument.voices.fixedFeedback[voice] >> feedbackShift;
+                        }
+
+                        fixedOutput[oscillator][i] = oscillators[oscillator].getFixedSample(voice, pitchOffset, frameModulation);
+                    }
+
+                    instrument.voices.fixedFeedback[voice] = fixedOutput[schedule.feedbackSource][i];
+                }
+
+                index += schedule.loopLength - 1;
+                continue;
+            }
+
+            oscillator = schedule.order[index];
+
+            Arrays.fill(fixedModulation, 0, length, 0);
+            for (int source : schedule.sources[oscillator]) {
+                for (int i = 0; i < length; i++) {
+                    fixedModulation[i] += fixedOutput[source][i];
+                }
+            }
+
+            oscillators[oscillator].renderFixed(voice, pitchOffset, fixedModulation, buffers.fixedEnvelope, fixedOutput[oscillator], length);
+        }
     }
 
     /**
      * <p>Puts every carrier defined by the algorithm in the <code>attack</code> stage, the envelope keeps progressing to <code>sustain</code> until the {@link #stop(int)} method is called.</p>
      *
-     * @param keyId     ID representing an unique key, in the range of 0 to 131.
-     * @param frequency Indicates the frequency at which the oscillators are going to operate.
+     * @param voice    Slot of the voice on the {@link VoicePool}.
+     * @param keyId    ID representing an unique key, in the range of 0 to 131.
+     * @param sounding Tells if the key is still producing sound, in which case it is restarted without resetting its phase.
      */
-    void start(int keyId, double frequency) {
-        if (!hasActiveCarriers(keyId)) {
-            elapsed[keyId] = 0;
+    void start(int voice, int keyId, boolean sounding) {
+        if (!sounding) {
+            instrument.voices.feedback[voice] = 0;
+            instrument.voices.fixedFeedback[voice] = 0;
         }
 
         for (int i = 0; i < oscillators.length; i++) {
-            oscillators[i].start(keyId, frequency);
+            oscillators[i].start(voice, keyId, sounding);
         }
     }
 
     /**
      * <p>Puts every oscillator of the specified key in the <code>release</code> stage.</p>
      *
-     * @param keyId ID representing an unique key, in the range of 0 to 131.
+     * @param voice Slot of the voice on the {@link VoicePool}.
      */
-    void stop(int keyId) {
+    void stop(int voice) {
         for (int i = 0; i < oscillators.length; i++) {
-            oscillators[i].stop(keyId);
+            oscillators[i].stop(voice);
         }
     }
 
     /**
-     * <p>Puts every oscillator of every key in the <code>release</code> stage.</p>
+     * <p>Puts every oscillator of the specified key in the <code>idle</code> position.</p>
+     *
+     * @param voice Slot of the voice on the {@link VoicePool}.
      */
-    void stopAll() {
-        for (int i = 0; i < 132; i++) {
-            if (hasActiveCarriers(i)) {
-                for (int j = 0; j < oscillators.length; j++) {
-                    oscillators[j].stop(i);
-                }
-            }
+    void silence(int voice) {
+        for (int i = 0; i < oscillators.length; i++) {
+            oscillators[i].silence(voice);
         }
     }
 
     /**
-     * <p>Puts every oscillator of every key in the <code>idle</code> position.</p>
+     * <p>Takes every oscillator of the specified voice to the <code>idle</code> position in a few milliseconds.</p>
+     *
+     * @param voice Slot of the voice on the {@link VoicePool}.
      */
-    void silenceAll() {
-        for (int i = 0; i < 132; i++) {
-            if (hasActiveCarriers(i)) {
-                for (int j = 0; j < oscillators.length; j++) {
-                    oscillators[j].silence(i);
-                }
-            }
+    void fade(int voice) {
+        for (int i = 0; i < oscillators.length; i++) {
+            oscillators[i].fade(voice);
         }
     }
 
     /**
-     * <p>Helper method used by {@link Instrument} to know if it needs to call {@link #getSample}.</p>
-     *
-     * @param keyId ID representing an unique key, in the range of 0 to 131.
-     * @return True if there are any oscillator in a state other than from <code>idle</code>.
-     * @see Oscillator#isActive
+     * @param voice Slot of the voice on the {@link VoicePool}.
+     * @return Sum of the current envelope values of the carriers, used to compare how loud voices are.
      */
-    boolean hasActiveCarriers(int keyId) {
-        for (int i = 0; i < 6; i++) {
-            if (activeCarriers[keyId][i]) {
-                return true;
-            }
+    double getAmplitude(int voice) {
+        double amplitude = 0;
+
+        for (int carriers = instrument.voices.preset[voice].schedule.carrierMask; carriers != 0; carriers &= carriers - 1) {
+            amplitude += oscillators[Integer.numberOfTrailingZeros(carriers)].getAmplitude(voice);
         }
 
-        return false;
+        return amplitude;
     }
 
 }
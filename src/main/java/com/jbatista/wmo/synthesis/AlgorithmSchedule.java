@@ -0,0 +1,161 @@
+package com.jbatista.wmo.synthesis;
+
+import com.jbatista.wmo.preset.AlgorithmPreset;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Flat, immutable representation of an {@link AlgorithmPreset} pattern, built once for every algorithm.</p>
+ * <p>Oscillators are listed in evaluation order, every modulator comes before the oscillators it modulates, so each one is computed once per frame without recursion.
+ * Oscillators that are not reachable from a carrier are left out.</p>
+ * <p>The feedback loop (the oscillators from the one receiving feedback down to its source) is kept together in the evaluation order,
+ * since it has to be computed one frame at a time, everything else can be computed a block at a time.</p>
+ *
+ * @see AlgorithmPreset
+ * @see Algorithm
+ */
+final class AlgorithmSchedule {
+
+    private static final AlgorithmSchedule[] SCHEDULES = new AlgorithmSchedule[AlgorithmPreset.values().length];
+
+    static {
+        for (AlgorithmPreset algorithm : AlgorithmPreset.values()) {
+            SCHEDULES[algorithm.ordinal()] = new AlgorithmSchedule(algorithm.getPattern());
+        }
+    }
+
+    /**
+     * Oscillators in evaluation order.
+     */
+    final int[] order;
+
+    /**
+     * Modulation sources, indexed by oscillator.
+     */
+    final int[][] sources;
+
+    final int[] carriers;
+    final int carrierMask;
+
+    /**
+     * Factor applied to the sum of the carriers.
+     */
+    final double normalization;
+
+    final int feedbackTarget;
+    final int feedbackSource;
+
+    /**
+     * Position on {@link #order} where the feedback loop starts, and how many oscillators it has.
+     */
+    final int loopStart;
+    final int loopLength;
+
+    private AlgorithmSchedule(int[][] pattern) {
+        sources = new int[6][];
+        for (int oscillator = 0; oscillator < 6; oscillator++) {
+            final List<Integer> modulators = new ArrayList<>();
+
+            for (int i = 2; i < pattern.length; i++) {
+                if (pattern[i][0] == oscillator) {
+                    modulators.add(pattern[i][1]);
+                }
+            }
+
+            sources[oscillator] = toArray(modulators);
+        }
+
+        carriers = pattern[0].clone();
+        normalization = 1d / (carriers.length * 13 * 13);
+
+        int mask = 0;
+        for (int carrier : carriers) {
+            mask |= 1 << carrier;
+        }
+        carrierMask = mask;
+
+        feedbackTarget = pattern[1][0];
+        feedbackSource = pattern[1][1];
+
+        final List<Integer> loop = new ArrayList<>();
+        if (!findLoop(pattern, feedbackTarget, loop)) {
+            throw new IllegalStateException("Feedback source " + feedbackSource + " is not modulated by " + feedbackTarget);
+        }
+
+        final List<Integer> evaluation = new ArrayList<>();
+        final boolean[] visited = new boolean[6];
+        for (int carrier : carriers) {
+            visit(carrier, loop, visited, evaluation);
+        }
+
+        order = toArray(evaluation);
+        loopStart = evaluation.indexOf(feedbackTarget);
+        loopLength = (loopStart < 0) ? 0 : loop.size();
+    }
+
+    static AlgorithmSchedule of(AlgorithmPreset algorithm) {
+        return SCHEDULES[algorithm.ordinal()];
+    }
+
+    // path from the feedback target to the feedback source, following which oscillator each one modulates
+    private boolean findLoop(int[][] pattern, int oscillator, List<Integer> loop) {
+        loop.add(oscillator);
+
+        if (oscillator == feedbackSource) {
+            return true;
+        }
+
+        for (int i = 2; i < pattern.length; i++) {
+            if ((pattern[i][1] == oscillator) && findLoop(pattern, pattern[i][0], loop)) {
+                return true;
+            }
+        }
+
+        loop.remove(loop.size() - 1);
+
+        return false;
+    }
+
+    // depth first, modulators are added before the oscillator, the feedback loop is added as a single block
+    private void visit(int oscillator, List<Integer> loop, boolean[] visited, List<Integer> evaluation) {
+        if (visited[oscillator]) {
+            return;
+        }
+
+        if (loop.contains(oscillator)) {
+            for (int member : loop) {
+                visited[member] = true;
+            }
+
+            for (int member : loop) {
+                for (int source : sources[member]) {
+                    if (!loop.contains(source)) {
+                        visit(source, loop, visited, evaluation);
+                    }
+                }
+            }
+
+            evaluation.addAll(loop);
+        } else {
+            visited[oscillator] = true;
+
+            for (int source : sources[oscillator]) {
+                visit(source, loop, visited, evaluation);
+            }
+
+            evaluation.add(oscillator);
+        }
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        final int[] array = new int[values.size()];
+
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+
+        return array;
+    }
+
+}
@@ -6,7 +6,7 @@ import com.jbatista.wmo.preset.OscillatorPreset;
 
 /**
  * <p>Performs volume level scaling on keys, making a key sound quieter or louder when going up or down the keyboard.</p>
- * <p>Instances of this class are created by the {@link Oscillator} class.</p>
+ * <p>Offsets are calculated for every key when a preset is set on the {@link Instrument}.</p>
  * <p>Internally, breakpoints are calculated based on the key ID. So it is important to pass the correct value to {@link Instrument#pressKey(int)}.</p>
  * <ul>
  *     <li>Setting a {@link com.jbatista.wmo.preset.OscillatorPreset#setBreakpointNote(KeyboardNote) note} marks the central point where the volume will change from left and right of it.</li>
@@ -14,63 +14,55 @@ import com.jbatista.wmo.preset.OscillatorPreset;
  *     <li>Setting the {@link com.jbatista.wmo.preset.OscillatorPreset#setBreakpointLeftDepth(int) left} and {@link com.jbatista.wmo.preset.OscillatorPreset#setBreakpointRightDepth(int) right} depths tells how fast the volume change is going to happen.</li>
  * </ul>
  *
- * @see Oscillator
+ * @see CompiledPreset
  * @see KeyboardNote
  * @see TransitionCurve
  */
 public class Breakpoint {
 
-    private final int oscillatorId;
-    private final Instrument instrument;
-
-    Breakpoint(int oscillatorId, Instrument instrument) {
-        this.oscillatorId = oscillatorId;
-        this.instrument = instrument;
+    private Breakpoint() {
     }
 
-    private int expCalc(int distance, int depth) {
+    private static int expCalc(int distance, int depth) {
         return (int) (Math.exp((distance - 72) / 13.5) * depth);
     }
 
-    private int linCalc(int distance, int depth) {
+    private static int linCalc(int distance, int depth) {
         return (int) (distance / 45d * depth);
     }
 
-    private OscillatorPreset oscillatorPreset() {
-        return instrument.preset.getOscillatorPresets()[oscillatorId];
-    }
-
     /**
      * <p>Gives the output level parameter offset, to be added to the oscillator output level parameter. Based on breakpoint position, curve shape, and curve depth.</p>
      * <p>This logic is based on hexter's <a href="https://github.com/smbolton/hexter/blob/737dbb04c407184fae0e203c1d73be8ad3fd55ba/src/dx7_voice.c#L500">dx7_voice.c</a></p>
      *
-     * @param keyId ID representing an unique key, in the range of 0 to 131.
+     * @param oscillatorPreset Parameters of the oscillator.
+     * @param keyId            ID representing an unique key, in the range of 0 to 131.
      * @return
      * @see <a href="https://github.com/smbolton/hexter">hexter</a>.
      */
-    int getLevelOffset(int keyId) {
+    static int getLevelOffset(OscillatorPreset oscillatorPreset, int keyId) {
         final int offset;
         final int distance;
         final int depth;
         final TransitionCurve curve;
 
-        if (keyId < oscillatorPreset().getBreakpointNote().getId()) {
-            if (oscillatorPreset().getBreakpointLeftDepth() == 0) {
+        if (keyId < oscillatorPreset.getBreakpointNote().getId()) {
+            if (oscillatorPreset.getBreakpointLeftDepth() == 0) {
                 return 0;
             }
 
-            curve = oscillatorPreset().getBreakpointLeftCurve();
-            depth = oscillatorPreset().getBreakpointLeftDepth();
-            distance = oscillatorPreset().getBreakpointNote().getId() - keyId;
+            curve = oscillatorPreset.getBreakpointLeftCurve();
+            depth = oscillatorPreset.getBreakpointLeftDepth();
+            distance = oscillatorPreset.getBreakpointNote().getId() - keyId;
 
-        } else if (keyId > oscillatorPreset().getBreakpointNote().getId()) {
-            if (oscillatorPreset().getBreakpointRightDepth() == 0) {
+        } else if (keyId > oscillatorPreset.getBreakpointNote().getId()) {
+            if (oscillatorPreset.getBreakpointRightDepth() == 0) {
                 return 0;
             }
 
-            curve = oscillatorPreset().getBreakpointRightCurve();
-            depth = oscillatorPreset().getBreakpointRightDepth();
-            distance = keyId - oscillatorPreset().getBreakpointNote().getId();
+            curve = oscillatorPreset.getBreakpointRightCurve();
+            depth = oscillatorPreset.getBreakpointRightDepth();
+            distance = keyId - oscillatorPreset.getBreakpointNote().getId();
         } else {
             return 0;
         }
@@ -0,0 +1,166 @@
+package com.jbatista.wmo.synthesis;
+
+import com.jbatista.wmo.KeyboardNote;
+import com.jbatista.wmo.WaveForm;
+import com.jbatista.wmo.preset.InstrumentPreset;
+import com.jbatista.wmo.preset.OscillatorPreset;
+import com.jbatista.wmo.util.MathFunctions;
+
+/**
+ * <p>Immutable copy of an {@link InstrumentPreset}, with every value that depends only on the preset and the key calculated beforehand.</p>
+ * <p>Built when the preset is set on the {@link Instrument}, so pressing a key is a few array reads, and rendering never reads the mutable preset objects.</p>
+ * <p>Values of the oscillators are indexed by oscillator, then by key ID.</p>
+ * <p>The versions of the presets it was built from are kept, when the preset is edited a new instance is built,
+ * reusing the values of the oscillators that did not change.</p>
+ *
+ * @see Instrument#setPreset(InstrumentPreset)
+ */
+final class CompiledPreset {
+
+    private static final KeyboardNote[] NOTES = KeyboardNote.values();
+
+    final InstrumentPreset preset;
+    private final int version;
+    private final OscillatorPreset[] oscillatorPresets = new OscillatorPreset[6];
+    private final int[] oscillatorVersions = new int[6];
+
+    final AlgorithmSchedule schedule;
+    final double feedbackLevel;
+    final int feedbackShift;
+
+    final boolean[] mute = new boolean[6];
+    final boolean[] bandLimited = new boolean[6];
+    final WaveForm[] waveForm = new WaveForm[6];
+
+    /**
+     * Phase increment in cycles per sample.
+     */
+    final double[][] phaseIncrement = new double[6][];
+
+    /**
+     * Output level with the breakpoint applied, from 0 to 99.
+     */
+    final int[][] outputLevel = new int[6][];
+
+    /**
+     * Value reached at the end of the attack, decay, sustain and release stages, indexed by {@link EnvelopeState#getId()}.
+     */
+    final double[][] envelopeAmplitude = new double[6][];
+
+    /**
+     * Same as {@link #envelopeAmplitude}, used by the fixed point engine, Q24 shifted to Q48.
+     */
+    final long[][] envelopeLevel = new long[6][];
+
+    /**
+     * Duration in samples of the attack, decay, sustain and release stages, indexed by {@link EnvelopeState#getId()}, then by key ID.
+     */
+    final int[][][] stageSize = new int[6][][];
+
+    /**
+     * Duration in samples of the {@link EnvelopeState#PRE_IDLE} stage.
+     */
+    final int silenceSize;
+
+    CompiledPreset(InstrumentPreset preset, int sampleRate) {
+        this(preset, sampleRate, null);
+    }
+
+    /**
+     * @param preset     The preset being compiled.
+     * @param sampleRate Sample rate of the instrument.
+     * @param previous   A previous compilation for the same sample rate, its oscillators are reused when they did not change. Can be null.
+     */
+    CompiledPreset(InstrumentPreset preset, int sampleRate, CompiledPreset previous) {
+        // versions are read first, a change made while compiling is picked up by the next compilation
+        this.preset = preset;
+        this.version = preset.getVersion();
+
+        schedule = AlgorithmSchedule.of(preset.getAlgorithm());
+        feedbackLevel = Math.pow(2, preset.getFeedback() - 7);
+        feedbackShift = 7 - preset.getFeedback();
+        silenceSize = Math.max(1, sampleRate / 3);
+
+        for (int oscillator = 0; oscillator < 6; oscillator++) {
+            final OscillatorPreset oscillatorPreset = preset.getOscillatorPresets()[oscillator];
+
+            oscillatorPresets[oscillator] = oscillatorPreset;
+            oscillatorVersions[oscillator] = oscillatorPreset.getVersion();
+
+            if ((previous != null)
+                    && (previous.oscillatorPresets[oscillator] == oscillatorPreset)
+                    && (previous.oscillatorVersions[oscillator] == oscillatorVersions[oscillator])) {
+                mute[oscillator] = previous.mute[oscillator];
+                bandLimited[oscillator] = previous.bandLimited[oscillator];
+                waveForm[oscillator] = previous.waveForm[oscillator];
+                phaseIncrement[oscillator] = previous.phaseIncrement[oscillator];
+                outputLevel[oscillator] = previous.outputLevel[oscillator];
+                envelopeAmplitude[oscillator] = previous.envelopeAmplitude[oscillator];
+                envelopeLevel[oscillator] = previous.envelopeLevel[oscillator];
+                stageSize[oscillator] = previous.stageSize[oscillator];
+            } else {
+                compile(oscillator, oscillatorPreset, sampleRate);
+            }
+        }
+    }
+
+    private void compile(int oscillator, OscillatorPreset oscillatorPreset, int sampleRate) {
+        mute[oscillator] = oscillatorPreset.isMute();
+        bandLimited[oscillator] = oscillatorPreset.isBandLimited();
+        waveForm[oscillator] = oscillatorPreset.getWaveForm();
+
+        // the fixed frequency calculation was taken from hexter, StrictMath keeps the phase increments of the fixed point engine the same on every virtual machine
+        final double fixedFrequency = StrictMath.exp(MathFunctions.NATURAL_LOG10 * (((int) oscillatorPreset.getFrequencyRatio() & 3) + oscillatorPreset.getFrequencyFine() / 100.0));
+        final double ratio = (oscillatorPreset.getFrequencyRatio() == 0) ? 0.5 : oscillatorPreset.getFrequencyRatio();
+        final double detune = Tables.FREQUENCY_DETUNE[oscillatorPreset.getFrequencyDetune() + 7];
+
+        final int[] speeds = new int[]{
+                oscillatorPreset.getAttackSpeed(), oscillatorPreset.getDecaySpeed(), oscillatorPreset.getSustainSpeed(), oscillatorPreset.getReleaseSpeed()};
+        final int[] levels = new int[]{
+                oscillatorPreset.getAttackLevel(), oscillatorPreset.getDecayLevel(), oscillatorPreset.getSustainLevel(), oscillatorPreset.getReleaseLevel()};
+
+        phaseIncrement[oscillator] = new double[132];
+        outputLevel[oscillator] = new int[132];
+        envelopeAmplitude[oscillator] = new double[4];
+        envelopeLevel[oscillator] = new long[4];
+        stageSize[oscillator] = new int[4][132];
+
+        for (int stage = 0; stage < 4; stage++) {
+            envelopeAmplitude[oscillator][stage] = Tables.ENV_EXP_INCREASE[levels[stage]];
+            envelopeLevel[oscillator][stage] = (long) FixedPoint.ENV_EXP_INCREASE[levels[stage]] << 24;
+        }
+
+        for (int keyId = 0; keyId < 132; keyId++) {
+            phaseIncrement[oscillator][keyId] = ((oscillatorPreset.isFixedFrequency()
+                    ? fixedFrequency
+                    : NOTES[keyId].getFrequency() * ratio * Tables.FREQUENCY_FINE[oscillatorPreset.getFrequencyFine()])
+                    + detune)
+                    / sampleRate;
+
+            outputLevel[oscillator][keyId] = Math.max(0, Math.min(oscillatorPreset.getOutputLevel() + Breakpoint.getLevelOffset(oscillatorPreset, keyId), 99));
+
+            for (int stage = 0; stage < 4; stage++) {
+                stageSize[oscillator][stage][keyId] = Math.max(1, (int) (Tables.ENV_SPEED[Math.max(0, Math.min(speeds[stage] + Tables.SPEED_SCALE[oscillatorPreset.getSpeedScaling()][keyId], 99))] * sampleRate));
+            }
+        }
+    }
+
+    /**
+     * @return True if neither the preset nor its oscillators were changed since this was built.
+     */
+    boolean isCurrent() {
+        if (preset.getVersion() != version) {
+            return false;
+        }
+
+        for (int oscillator = 0; oscillator < 6; oscillator++) {
+            if ((preset.getOscillatorPresets()[oscillator] != oscillatorPresets[oscillator])
+                    || (oscillatorPresets[oscillator].getVersion() != oscillatorVersions[oscillator])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+}
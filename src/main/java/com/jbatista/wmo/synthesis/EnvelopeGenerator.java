@@ -1,13 +1,17 @@
 package com.jbatista.wmo.synthesis;
 
-import com.jbatista.wmo.preset.OscillatorPreset;
-import com.jbatista.wmo.util.MathFunctions;
+import com.jbatista.wmo.Engine;
+
+import java.util.Arrays;
 
 /**
  * <p>Provides amplitude modulation for an {@link Oscillator}, based on <a href="https://en.wikipedia.org/wiki/Envelope_(music)">ADSR</a> parameters.</p>
- * <p>Instances of this class are created by the {@link Oscillator} class.</p>
+ * <p>Each stage is a linear ramp, its increment per sample is calculated once when the stage starts, so producing a block of values is a single addition per sample.
+ * Stage transitions are handled on the exact sample they happen, in the middle of a block if needed.</p>
+ * <p>Instances of this class are created by the {@link Oscillator} class, the state of each voice is kept by the {@link VoicePool} of the instrument.</p>
  *
  * @see Oscillator
+ * @see VoicePool
  */
 public class EnvelopeGenerator {
 
@@ -15,232 +19,329 @@ public class EnvelopeGenerator {
     private final int sampleRate;
     private final Instrument instrument;
 
-    private final EnvelopeState[] state = new EnvelopeState[132];
-    private final double[] startAmplitude = new double[132];
-    private final double[] endAmplitude = new double[132];
-    private final double[] currentAmplitude = new double[132];
-    private final double[] position = new double[132];
-    private final double[] progress = new double[132];
-    private final double[][] factor = new double[132][5];
-    private final int[][] size = new int[132][5];
-
-    private int currentAttackSpeed = -1;
-    private int currentDecaySpeed = -1;
-    private int currentSustainSpeed = -1;
-    private int currentReleaseSpeed = -1;
-    private int currentSpeedScale = -1;
-
     EnvelopeGenerator(int oscillatorId, int sampleRate, Instrument instrument) {
         this.oscillatorId = oscillatorId;
         this.sampleRate = sampleRate;
         this.instrument = instrument;
-
-        for (int i = 0; i < 132; i++) {
-            this.size[i][EnvelopeState.PRE_IDLE.getId()] = sampleRate / 3;
-            this.factor[i][EnvelopeState.PRE_IDLE.getId()] = 1d / size[i][EnvelopeState.PRE_IDLE.getId()];
-        }
-
-        checkParameters();
     }
 
-    EnvelopeState getEnvelopeState(int keyId) {
-        return state[keyId];
+    EnvelopeState getEnvelopeState(int voice) {
+        return instrument.voices.envelopeState[voice * VoicePool.OSCILLATORS + oscillatorId];
     }
 
-    private OscillatorPreset oscillatorPreset() {
-        return instrument.preset.getOscillatorPresets()[oscillatorId];
+    // duration of a stage in samples, taken from the compiled preset of the voice when the stage starts
+    private int stageSize(int voice, EnvelopeState envelopeState) {
+        final int keyId = instrument.voices.key[voice];
+
+        return (envelopeState.getId() <= 3)
+                ? instrument.voices.preset[voice].stageSize[oscillatorId][envelopeState.getId()][keyId]
+                : instrument.voices.preset[voice].silenceSize;
     }
 
     /**
-     * <p>Helper method that only recalculate envelope duration if speed changes.</p>
+     * <p>Advances the envelope by one sample.</p>
+     *
+     * @param voice Slot of the voice on the {@link VoicePool}.
+     * @return The value of the envelope shape for the sample.
+     * @see #render(int, double[], int)
      */
-    private void checkParameters() {
-        boolean scaleChange = false;
-
-        if (currentSpeedScale != oscillatorPreset().getSpeedScaling()) {
-            currentSpeedScale = oscillatorPreset().getSpeedScaling();
-
-            scaleChange = true;
+    double nextAmplitude(int voice) {
+        final VoicePool voices = instrument.voices;
+        final int index = voice * VoicePool.OSCILLATORS + oscillatorId;
+
+        if (voices.envelopeState[index].getId() <= 4) {
+            if (++voices.position[index] < voices.stageSize[index]) {
+                voices.amplitude[index] += voices.amplitudeIncrement[index];
+            } else {
+                return endStage(voice);
+            }
         }
 
-        if ((currentAttackSpeed != oscillatorPreset().getAttackSpeed()) || scaleChange) {
-            changeParameters(EnvelopeState.ATTACK, oscillatorPreset().getAttackSpeed());
-            currentAttackSpeed = oscillatorPreset().getAttackSpeed();
-        }
+        return voices.amplitude[index];
+    }
 
-        if ((currentDecaySpeed != oscillatorPreset().getDecaySpeed()) || scaleChange) {
-            changeParameters(EnvelopeState.DECAY, oscillatorPreset().getDecaySpeed());
-            currentDecaySpeed = oscillatorPreset().getDecaySpeed();
-        }
+    /**
+     * <p>Advances the envelope by a block of samples, producing the same values as calling {@link #nextAmplitude} once for every sample.</p>
+     *
+     * @param voice    Slot of the voice on the {@link VoicePool}.
+     * @param envelope Receives one value per sample.
+     * @param frames   How many samples are going to be produced.
+     */
+    void render(int voice, double[] envelope, int frames) {
+        final VoicePool voices = instrument.voices;
+        final int index = voice * VoicePool.OSCILLATORS + oscillatorId;
+        int i = 0;
+
+        while (i < frames) {
+            if (voices.envelopeState[index].getId() > 4) {
+                Arrays.fill(envelope, i, frames, voices.amplitude[index]);
+                return;
+            }
+
+            // samples left on the ramp before the transition
+            final int end = Math.min(frames, i + voices.stageSize[index] - voices.position[index] - 1);
+
+            if (i < end) {
+                final double step = voices.amplitudeIncrement[index];
+                double amplitude = voices.amplitude[index];
+
+                voices.position[index] += end - i;
+                for (; i < end; i++) {
+                    amplitude += step;
+                    envelope[i] = amplitude;
+                }
 
-        if ((currentSustainSpeed != oscillatorPreset().getSustainSpeed()) || scaleChange) {
-            changeParameters(EnvelopeState.SUSTAIN, oscillatorPreset().getSustainSpeed());
-            currentSustainSpeed = oscillatorPreset().getSustainSpeed();
-        }
+                voices.amplitude[index] = amplitude;
+            }
 
-        if ((currentReleaseSpeed != oscillatorPreset().getReleaseSpeed()) || scaleChange) {
-            changeParameters(EnvelopeState.RELEASE, oscillatorPreset().getReleaseSpeed());
-            currentReleaseSpeed = oscillatorPreset().getReleaseSpeed();
+            if (i < frames) {
+                voices.position[index]++;
+                envelope[i++] = endStage(voice);
+            }
         }
     }
 
-    private void changeParameters(EnvelopeState envelopeState, int speed) {
-        for (int i = 0; i < 132; i++) {
-            size[i][envelopeState.getId()]
-                    = (int) (Tables.ENV_SPEED[Math.max(0, Math.min(speed + Tables.SPEED_SCALE[oscillatorPreset().getSpeedScaling()][i], 99))] * sampleRate);
-            factor[i][envelopeState.getId()] = 1d / size[i][envelopeState.getId()];
+    /**
+     * <p>Same as {@link #nextAmplitude}, calculated with integers.</p>
+     *
+     * @param voice Slot of the voice on the {@link VoicePool}.
+     * @return The value of the envelope shape for the sample, in Q24.
+     * @see FixedPoint
+     */
+    int nextLevel(int voice) {
+        final VoicePool voices = instrument.voices;
+        final int index = voice * VoicePool.OSCILLATORS + oscillatorId;
+
+        if (voices.envelopeState[index].getId() <= 4) {
+            if (++voices.position[index] < voices.stageSize[index]) {
+                voices.level[index] += voices.levelIncrement[index];
+            } else {
+                return endFixedStage(voice);
+            }
         }
+
+        return (int) (voices.level[index] >> 24);
     }
 
     /**
-     * @param keyId ID representing an unique key, in the range of 0 to 131.
-     * @return The current value of the envelope shape.
-     * @see #advanceEnvelope
+     * <p>Same as {@link #render(int, double[], int)}, calculated with integers.</p>
+     *
+     * @param voice  Slot of the voice on the {@link VoicePool}.
+     * @param levels Receives one Q24 value per sample.
+     * @param frames How many samples are going to be produced.
+     * @see FixedPoint
      */
-    double getEnvelopeAmplitude(int keyId) {
-        switch (state[keyId]) {
-            case ATTACK:
-                if (applyEnvelope(keyId, EnvelopeState.ATTACK)) {
-                    position[keyId] = 0;
-                    progress[keyId] = 0;
+    void render(int voice, int[] levels, int frames) {
+        final VoicePool voices = instrument.voices;
+        final int index = voice * VoicePool.OSCILLATORS + oscillatorId;
+        int i = 0;
+
+        while (i < frames) {
+            if (voices.envelopeState[index].getId() > 4) {
+                Arrays.fill(levels, i, frames, (int) (voices.level[index] >> 24));
+                return;
+            }
+
+            final int end = Math.min(frames, i + voices.stageSize[index] - voices.position[index] - 1);
+
+            if (i < end) {
+                final long step = voices.levelIncrement[index];
+                long level = voices.level[index];
+
+                voices.position[index] += end - i;
+                for (; i < end; i++) {
+                    level += step;
+                    levels[i] = (int) (level >> 24);
+                }
 
-                    startAmplitude[keyId] = Tables.ENV_EXP_INCREASE[oscillatorPreset().getAttackLevel()];
-                    endAmplitude[keyId] = Tables.ENV_EXP_INCREASE[oscillatorPreset().getDecayLevel()];
+                voices.level[index] = level;
+            }
 
-                    state[keyId] = EnvelopeState.DECAY;
-                }
-                break;
+            if (i < frames) {
+                voices.position[index]++;
+                levels[i++] = endFixedStage(voice);
+            }
+        }
+    }
 
-            case DECAY:
-                if (applyEnvelope(keyId, EnvelopeState.DECAY)) {
-                    position[keyId] = 0;
-                    progress[keyId] = 0;
+    // the sample where a stage ends keeps the last value, unless the envelope went idle
+    private double endStage(int voice) {
+        final double last = instrument.voices.amplitude[voice * VoicePool.OSCILLATORS + oscillatorId];
 
-                    startAmplitude[keyId] = Tables.ENV_EXP_INCREASE[oscillatorPreset().getDecayLevel()];
-                    endAmplitude[keyId] = Tables.ENV_EXP_INCREASE[oscillatorPreset().getSustainLevel()];
+        nextStage(voice);
 
-                    state[keyId] = EnvelopeState.SUSTAIN;
-                }
+        return (getEnvelopeState(voice) == EnvelopeState.IDLE) ? 0 : last;
+    }
+
+    private int endFixedStage(int voice) {
+        final int last = (int) (instrument.voices.level[voice * VoicePool.OSCILLATORS + oscillatorId] >> 24);
+
+        nextStage(voice);
+
+        return (getEnvelopeState(voice) == EnvelopeState.IDLE) ? 0 : last;
+    }
+
+    private void nextStage(int voice) {
+        final VoicePool voices = instrument.voices;
+        final int index = voice * VoicePool.OSCILLATORS + oscillatorId;
+
+        switch (voices.envelopeState[index]) {
+            case ATTACK:
+                startStage(voice, EnvelopeState.DECAY, EnvelopeState.ATTACK, EnvelopeState.DECAY);
                 break;
 
-            case SUSTAIN:
-                if (applyEnvelope(keyId, EnvelopeState.SUSTAIN)) {
-                    state[keyId] = EnvelopeState.HOLD;
-                }
+            case DECAY:
+                startStage(voice, EnvelopeState.SUSTAIN, EnvelopeState.DECAY, EnvelopeState.SUSTAIN);
                 break;
 
-            case HOLD:
-                // do noting
+            case SUSTAIN:
+                voices.envelopeState[index] = EnvelopeState.HOLD;
                 break;
 
             case RELEASE:
-                if (applyEnvelope(keyId, EnvelopeState.RELEASE)) {
-                    silence(keyId);
-                }
+                silence(voice);
                 break;
 
             case PRE_IDLE:
-                if (applyEnvelope(keyId, EnvelopeState.PRE_IDLE)) {
-                    reset(keyId);
-                }
+                reset(voice);
                 break;
 
-            case IDLE:
-                // do nothing
+            default:
+                // HOLD and IDLE do not change
                 break;
         }
+    }
+
+    // goes from the level reached by one stage to the level reached by another
+    private void startStage(int voice, EnvelopeState envelopeState, EnvelopeState from, EnvelopeState to) {
+        final CompiledPreset compiledPreset = instrument.voices.preset[voice];
 
-        return currentAmplitude[keyId];
+        startStage(voice, envelopeState,
+                compiledPreset.envelopeAmplitude[oscillatorId][from.getId()], compiledPreset.envelopeAmplitude[oscillatorId][to.getId()],
+                compiledPreset.envelopeLevel[oscillatorId][from.getId()], compiledPreset.envelopeLevel[oscillatorId][to.getId()]);
     }
 
-    boolean applyEnvelope(int keyId, EnvelopeState envelopeState) {
-        if (position[keyId] < size[keyId][envelopeState.getId()]) {
-            currentAmplitude[keyId] = MathFunctions.linearInterpolation(startAmplitude[keyId], endAmplitude[keyId], progress[keyId]);
+    private void startStage(int voice, EnvelopeState envelopeState, double start, double end, long startLevel, long endLevel) {
+        startStage(voice, envelopeState, start, end, startLevel, endLevel, stageSize(voice, envelopeState));
+    }
 
-            return false;
-        } else {
-            return true;
-        }
+    // the ramp goes from start to end in the number of samples of the stage
+    private void startStage(int voice, EnvelopeState envelopeState, double start, double end, long startLevel, long endLevel, int samples) {
+        final VoicePool voices = instrument.voices;
+        final int index = voice * VoicePool.OSCILLATORS + oscillatorId;
+
+        voices.stageSize[index] = samples;
+        voices.position[index] = 0;
+        voices.amplitude[index] = start;
+        voices.amplitudeIncrement[index] = (end - start) / samples;
+        voices.level[index] = startLevel;
+        voices.levelIncrement[index] = (endLevel - startLevel) / samples;
+
+        voices.envelopeState[index] = envelopeState;
     }
 
     /**
-     * <p>Sets the required parameters for the next value of the envelope shape.</p>
+     * <p>Puts the envelope on the {@link EnvelopeState#ATTACK} position.</p>
      *
-     * @param keyId ID representing an unique key, in the range of 0 to 131.
+     * @param voice Slot of the voice on the {@link VoicePool}.
      */
-    void advanceEnvelope(int keyId) {
-        if (state[keyId].getId() <= 4) {
-            position[keyId] += 1;
-            progress[keyId] += factor[keyId][state[keyId].getId()];
-        }
+    void initialize(int voice) {
+        startStage(voice, EnvelopeState.ATTACK,
+                0, instrument.voices.preset[voice].envelopeAmplitude[oscillatorId][EnvelopeState.ATTACK.getId()],
+                0, instrument.voices.preset[voice].envelopeLevel[oscillatorId][EnvelopeState.ATTACK.getId()]);
     }
 
     /**
-     * <p>Puts the envelope on the {@link EnvelopeState#ATTACK} position.</p>
+     * <p>Puts the envelope on the {@link EnvelopeState#RELEASE} position.</p>
      *
-     * @param keyId ID representing an unique key, in the range of 0 to 131.
+     * @param voice Slot of the voice on the {@link VoicePool}.
      */
-    void initialize(int keyId) {
-        checkParameters();
+    void stop(int voice) {
+        final VoicePool voices = instrument.voices;
+        final int index = voice * VoicePool.OSCILLATORS + oscillatorId;
 
-        position[keyId] = 0;
-        progress[keyId] = 0;
+        if (voices.envelopeState[index] != EnvelopeState.RELEASE) {
+            synchronizeAmplitude(voice);
 
-        startAmplitude[keyId] = 0;
-        endAmplitude[keyId] = Tables.ENV_EXP_INCREASE[oscillatorPreset().getAttackLevel()];
+            startStage(voice, EnvelopeState.RELEASE,
+                    voices.amplitude[index], instrument.voices.preset[voice].envelopeAmplitude[oscillatorId][EnvelopeState.RELEASE.getId()],
+                    voices.level[index], instrument.voices.preset[voice].envelopeLevel[oscillatorId][EnvelopeState.RELEASE.getId()]);
+        }
+    }
 
-        state[keyId] = EnvelopeState.ATTACK;
+    /**
+     * <p>Puts the envelope <b>immediately</b> on the {@link EnvelopeState#IDLE} position.</p>
+     *
+     * @param voice Slot of the voice on the {@link VoicePool}.
+     */
+    void reset(int voice) {
+        final VoicePool voices = instrument.voices;
+        final int index = voice * VoicePool.OSCILLATORS + oscillatorId;
+
+        if (voices.envelopeState[index] != EnvelopeState.IDLE) {
+            voices.position[index] = 0;
+            voices.amplitude[index] = 0;
+            voices.amplitudeIncrement[index] = 0;
+            voices.level[index] = 0;
+            voices.levelIncrement[index] = 0;
+
+            voices.envelopeState[index] = EnvelopeState.IDLE;
+        }
     }
 
     /**
-     * <p>Puts the envelope on the {@link EnvelopeState#RELEASE} position.</p>
+     * <p>Puts the envelope <b>gradually</b> on the {@link EnvelopeState#IDLE} position.</p>
      *
-     * @param keyId ID representing an unique key, in the range of 0 to 131.
+     * @param voice Slot of the voice on the {@link VoicePool}.
      */
-    void stop(int keyId) {
-        if (state[keyId] != EnvelopeState.RELEASE) {
-            position[keyId] = 0;
-            progress[keyId] = 0;
+    void silence(int voice) {
+        final VoicePool voices = instrument.voices;
+        final int index = voice * VoicePool.OSCILLATORS + oscillatorId;
 
-            startAmplitude[keyId] = currentAmplitude[keyId];
-            endAmplitude[keyId] = Tables.ENV_EXP_INCREASE[oscillatorPreset().getReleaseLevel()];
+        if (voices.envelopeState[index] != EnvelopeState.PRE_IDLE) {
+            synchronizeAmplitude(voice);
 
-            state[keyId] = EnvelopeState.RELEASE;
+            startStage(voice, EnvelopeState.PRE_IDLE, voices.amplitude[index], 0, voices.level[index], 0);
         }
     }
 
     /**
-     * <p>Puts the envelope <b>immediately</b> on the {@link EnvelopeState#IDLE} position.</p>
+     * <p>Puts the envelope on the {@link EnvelopeState#IDLE} position in about 5 milliseconds, used on voices that are stolen.</p>
      *
-     * @param keyId ID representing an unique key, in the range of 0 to 131.
+     * @param voice Slot of the voice on the {@link VoicePool}.
      */
-    void reset(int keyId) {
-        if (state[keyId] != EnvelopeState.IDLE) {
-            position[keyId] = 0;
-            progress[keyId] = 0;
+    void fade(int voice) {
+        final VoicePool voices = instrument.voices;
+        final int index = voice * VoicePool.OSCILLATORS + oscillatorId;
 
-            startAmplitude[keyId] = 0;
-            endAmplitude[keyId] = 0;
-            currentAmplitude[keyId] = 0;
+        if (voices.envelopeState[index] != EnvelopeState.IDLE) {
+            synchronizeAmplitude(voice);
 
-            state[keyId] = EnvelopeState.IDLE;
+            startStage(voice, EnvelopeState.PRE_IDLE, voices.amplitude[index], 0, voices.level[index], 0, Math.max(1, sampleRate / 200));
         }
     }
 
     /**
-     * <p>Puts the envelope <b>gradually</b> on the {@link EnvelopeState#IDLE} position.</p>
-     *
-     * @param keyId ID representing an unique key, in the range of 0 to 131.
+     * @param voice Slot of the voice on the {@link VoicePool}.
+     * @return The current value of the envelope shape, as used by the current engine.
      */
-    void silence(int keyId) {
-        if (state[keyId] != EnvelopeState.PRE_IDLE) {
-            position[keyId] = 0;
-            progress[keyId] = 0;
+    double getAmplitude(int voice) {
+        final int index = voice * VoicePool.OSCILLATORS + oscillatorId;
+
+        return (instrument.engine == Engine.FIXED_POINT)
+                ? (double) (instrument.voices.level[index] >> 24) / FixedPoint.ENVELOPE_ONE
+                : instrument.voices.amplitude[index];
+    }
 
-            startAmplitude[keyId] = currentAmplitude[keyId];
-            endAmplitude[keyId] = 0;
+    // only the version used by the current engine is updated every sample, the other one is brought up to date before being used as a starting point
+    private void synchronizeAmplitude(int voice) {
+        final VoicePool voices = instrument.voices;
+        final int index = voice * VoicePool.OSCILLATORS + oscillatorId;
 
-            state[keyId] = EnvelopeState.PRE_IDLE;
+        if (instrument.engine == Engine.FIXED_POINT) {
+            voices.amplitude[index] = (double) (voices.level[index] >> 24) / FixedPoint.ENVELOPE_ONE;
+        } else {
+            voices.level[index] = (long) (voices.amplitude[index] * FixedPoint.ENVELOPE_ONE) << 24;
         }
     }
 
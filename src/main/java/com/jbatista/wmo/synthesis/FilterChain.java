@@ -3,6 +3,7 @@ package com.jbatista.wmo.synthesis;
 import com.jbatista.wmo.filter.Filter;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -13,53 +14,147 @@ import java.util.List;
  *     <li>Filters added with {@link #sum(Filter) sum} are going to be applied on the sample individually, and the result will be added to the output, preserving the input.</li>
  *     <li>Filter added with {@link #link(Filter) link} are going to be applied to the entire output, modifying the input.</li>
  * </ul>
+ * <p>Stereo signals are filtered one channel at a time, see {@link #getResult(double, int)}.</p>
+ * <p>Every change to the chain compiles it into a flat plan, which is published at once, so the chain can be changed by one thread while another one is using it.</p>
  *
  * @see Filter
  */
 public class FilterChain {
 
+    // filters in order, and whether each one is summed or linked
+    private static final class Plan {
+
+        static final Plan EMPTY = new Plan(new Filter[0], new boolean[0]);
+
+        final Filter[] filters;
+        final boolean[] sum;
+        final boolean hasSum;
+
+        Plan(Filter[] filters, boolean[] sum) {
+            this.filters = filters;
+            this.sum = sum;
+
+            boolean anySum = false;
+            for (boolean value : sum) {
+                anySum |= value;
+            }
+
+            this.hasSum = anySum;
+        }
+
+    }
+
     private final List<FilterChainItem> chain = new ArrayList<>();
-    private FilterChainItem chainItem;
-    private double output;
-    private int index = 0;
-    private int size = 0;
-    private boolean first;
+    private volatile Plan plan = Plan.EMPTY;
+
+    // block processing keeps a copy of the input for the summed filters, and a buffer reused by each one of them, grown when needed
+    private double[] inputBuffer = new double[0];
+    private double[] branchBuffer = new double[0];
 
     public double getResult(double input) {
-        if (chain.isEmpty()) {
+        return getResult(input, 0);
+    }
+
+    /**
+     * @param input   A sample of one of the channels of a stereo signal.
+     * @param channel 0 for left, 1 for right.
+     * @return The filtered sample.
+     * @see Filter#apply(double, int)
+     */
+    public double getResult(double input, int channel) {
+        final Plan current = plan;
+
+        if (current.filters.length == 0) {
             return input;
         }
 
-        output = 0;
-        first = true;
+        double output = 0;
+        boolean first = true;
 
-        for (index = 0; index < size; index++) {
-            chainItem = chain.get(index);
+        for (int index = 0; index < current.filters.length; index++) {
+            if (current.sum[index]) {
+                output += current.filters[index].apply(input, channel);
+            } else {
+                if (first) {
+                    output = input;
+                    first = false;
+                }
 
-            switch (chainItem.getFilterType()) {
-                case SUM:
-                    output += chainItem.getFilter().apply(input);
-                    break;
+                output = current.filters[index].apply(output, channel);
+            }
+        }
 
-                case LINK:
-                    if (first) {
-                        output = input;
-                        first = false;
-                    }
+        return output;
+    }
 
-                    output = chainItem.getFilter().apply(output);
-                    break;
+    /**
+     * <p>Filters a block of samples in place, producing the same output as calling {@link #getResult(double)} for each one of them.</p>
+     *
+     * @param buffer The samples.
+     * @param offset Position of the first sample.
+     * @param length How many samples are going to be filtered.
+     */
+    public void process(double[] buffer, int offset, int length) {
+        process(buffer, offset, length, 0);
+    }
 
-                default:
-                    break;
+    /**
+     * <p>Filters a block of samples of one of the channels of a stereo signal in place,
+     * producing the same output as calling {@link #getResult(double, int)} for each one of them.</p>
+     * <p>Each filter processes the whole block before the next one, see {@link Filter#process(double[], int, int, int)}.</p>
+     *
+     * @param buffer  The samples.
+     * @param offset  Position of the first sample.
+     * @param length  How many samples are going to be filtered.
+     * @param channel 0 for left, 1 for right.
+     */
+    public void process(double[] buffer, int offset, int length, int channel) {
+        final Plan current = plan;
+
+        if (current.filters.length == 0) {
+            return;
+        }
+
+        // only linked filters, each one works on the output of the previous
+        if (!current.hasSum) {
+            for (Filter filter : current.filters) {
+                filter.process(buffer, offset, length, channel);
             }
+
+            return;
         }
 
-        return output;
+        if (inputBuffer.length < length) {
+            inputBuffer = new double[length];
+            branchBuffer = new double[length];
+        }
+
+        System.arraycopy(buffer, offset, inputBuffer, 0, length);
+        Arrays.fill(buffer, offset, offset + length, 0);
+
+        boolean first = true;
+        for (int index = 0; index < current.filters.length; index++) {
+            if (current.sum[index]) {
+                System.arraycopy(inputBuffer, 0, branchBuffer, 0, length);
+                current.filters[index].process(branchBuffer, 0, length, channel);
+
+                for (int i = 0; i < length; i++) {
+                    buffer[offset + i] += branchBuffer[i];
+                }
+            } else {
+                if (first) {
+                    System.arraycopy(inputBuffer, 0, buffer, offset, length);
+                    first = false;
+                }
+
+                current.filters[index].process(buffer, offset, length, channel);
+            }
+        }
     }
 
-    public void clear() {
+    public synchronized void clear() {
         chain.clear();
+        compile();
     }
 
     /**
@@ -68,11 +163,10 @@ public class FilterChain {
      * @param filter The filter to be added to the chain.
      * @return The filter chain.
      */
-    public FilterChain sum(Filter filter) {
-        if (!chain.contains(filter)) {
-            if (chain.add(new FilterChainItem(FilterChainItem.FilterType.SUM, filter))) {
-                size++;
-            }
+    public synchronized FilterChain sum(Filter filter) {
+        if (indexOf(filter) < 0) {
+            chain.add(new FilterChainItem(FilterChainItem.FilterType.SUM, filter));
+            compile();
         }
 
         return this;
@@ -84,27 +178,60 @@ public class FilterChain {
      * @param filter The filter to be linked to the chain.
      * @return The filter chain.
      */
-    public FilterChain link(Filter filter) {
-        if (!chain.contains(filter)) {
-            if (chain.add(new FilterChainItem(FilterChainItem.FilterType.LINK, filter))) {
-                size++;
-            }
+    public synchronized FilterChain link(Filter filter) {
+        if (indexOf(filter) < 0) {
+            chain.add(new FilterChainItem(FilterChainItem.FilterType.LINK, filter));
+            compile();
         }
 
         return this;
     }
 
-    public boolean remove(Filter filter) {
-        if (chain.remove(filter)) {
-            size--;
-            return true;
+    public synchronized boolean remove(Filter filter) {
+        final int index = indexOf(filter);
+
+        if (index < 0) {
+            return false;
+        }
+
+        chain.remove(index);
+        compile();
+
+        return true;
+    }
+
+    public synchronized void swap(Filter filter1, Filter filter2) {
+        final int index1 = indexOf(filter1);
+        final int index2 = indexOf(filter2);
+
+        if ((index1 < 0) || (index2 < 0)) {
+            throw new IllegalArgumentException("Both filters must be on the chain");
         }
 
-        return false;
+        Collections.swap(chain, index1, index2);
+        compile();
     }
 
-    public void swap(Filter filter1, Filter filter2) {
-        Collections.swap(chain, chain.indexOf(filter1), chain.indexOf(filter2));
+    private int indexOf(Filter filter) {
+        for (int index = 0; index < chain.size(); index++) {
+            if (chain.get(index).getFilter() == filter) {
+                return index;
+            }
+        }
+
+        return -1;
+    }
+
+    private void compile() {
+        final Filter[] filters = new Filter[chain.size()];
+        final boolean[] sum = new boolean[chain.size()];
+
+        for (int index = 0; index < filters.length; index++) {
+            filters[index] = chain.get(index).getFilter();
+            sum[index] = chain.get(index).getFilterType() == FilterChainItem.FilterType.SUM;
+        }
+
+        plan = new Plan(filters, sum);
     }
 
 }
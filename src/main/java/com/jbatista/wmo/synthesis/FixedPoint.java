@@ -0,0 +1,154 @@
+package com.jbatista.wmo.synthesis;
+
+/**
+ * <p>Integer arithmetic used by the {@link com.jbatista.wmo.Engine#FIXED_POINT fixed point} engine.</p>
+ * <p>Works the same way as the original hardware: the phase is a 32 bit integer that wraps around, amplitudes are handled as attenuations in the log domain,
+ * where multiplying becomes adding, and converted back to linear values through an exponential table.</p>
+ * <ul>
+ *     <li>Phase: full cycle is 2^32.</li>
+ *     <li>Attenuation: 256 units per halving of the amplitude (about 6dB), 0 is the maximum output.</li>
+ *     <li>Envelope levels: Q24, 1.0 is 2^24.</li>
+ *     <li>Samples and modulation: Q20, 1.0 is 2^20, modulation is in radians.</li>
+ * </ul>
+ *
+ * @see Oscillator
+ * @see EnvelopeGenerator
+ */
+final class FixedPoint {
+
+    static final int ONE = 1 << 20;
+    static final int ENVELOPE_ONE = 1 << 24;
+    static final int SILENCE = 24 << 8;
+
+    /**
+     * <p>Quarter of a sine wave, as attenuation.</p>
+     */
+    private static final int[] LOG_SIN = new int[1024];
+
+    /**
+     * <p>Linear value of the fractional part of an attenuation, 2^24 means the maximum output with a headroom of 16 times the Q20 unit.</p>
+     */
+    private static final int[] EXP = new int[256];
+
+    /**
+     * <p>Attenuation of the mantissa of a level, 256 * log2(1 + i / 256).</p>
+     */
+    private static final int[] LOG_MANTISSA = new int[256];
+
+    /**
+     * <p>Attenuation equivalent to {@link Tables#OSCILLATOR_OUTPUT_LEVELS}.</p>
+     */
+    static final int[] OUTPUT_LEVELS = new int[100];
+
+    /**
+     * <p>Q24 values equivalent to {@link Tables#ENV_EXP_INCREASE}.</p>
+     */
+    static final int[] ENV_EXP_INCREASE = new int[100];
+
+    // modulation in Q20 radians to phase units, 2^32 / TAU / 2^20, in Q16
+    private static final long MODULATION_TO_PHASE = Math.round(4096 / (2 * Math.PI) * 65536);
+
+    // build tables, with StrictMath, Math may differ by one ulp between virtual machines, which can change a rounded entry
+    static {
+        for (int i = 0; i < 1024; i++) {
+            LOG_SIN[i] = (int) Math.round(-256 * StrictMath.log(StrictMath.sin((i + 0.5) / 1024 * Math.PI / 2)) / StrictMath.log(2));
+        }
+
+        for (int i = 0; i < 256; i++) {
+            EXP[i] = (int) Math.round((1 << 24) * StrictMath.pow(2, -i / 256d));
+            LOG_MANTISSA[i] = (int) Math.round(256 * StrictMath.log(1 + i / 256d) / StrictMath.log(2));
+        }
+
+        for (int i = 0; i < 100; i++) {
+            // 16 is the headroom of the exponential table, the highest output level is about 13.1
+            OUTPUT_LEVELS[i] = (int) Math.round(-256 * StrictMath.log(Tables.OSCILLATOR_OUTPUT_LEVELS[i] / 16) / StrictMath.log(2));
+            ENV_EXP_INCREASE[i] = (int) Math.round(Tables.ENV_EXP_INCREASE[i] * ENVELOPE_ONE);
+        }
+    }
+
+    private FixedPoint() {
+    }
+
+    /**
+     * @param level A Q24 envelope level.
+     * @return The level as attenuation.
+     */
+    static int attenuation(int level) {
+        if (level <= 0) {
+            return SILENCE;
+        }
+
+        final int msb = 31 - Integer.numberOfLeadingZeros(level);
+
+        return ((24 - msb) << 8) - LOG_MANTISSA[((level << (31 - msb)) >>> 23) & 255];
+    }
+
+    /**
+     * @param attenuation Sum of attenuations.
+     * @return The Q20 linear value.
+     */
+    static int gain(int attenuation) {
+        return (attenuation >= SILENCE) ? 0 : EXP[attenuation & 255] >> (attenuation >> 8);
+    }
+
+    /**
+     * @param modulation Q20 modulation, in radians.
+     * @return The modulation in phase units.
+     */
+    static int modulationToPhase(int modulation) {
+        return (int) ((modulation * MODULATION_TO_PHASE) >> 16);
+    }
+
+    /**
+     * @param increment Phase increment, in cycles per sample.
+     * @return The increment in phase units.
+     */
+    static int phaseIncrement(double increment) {
+        return (int) (long) (increment * 4294967296d);
+    }
+
+    /**
+     * @param phase       Position in the cycle.
+     * @param attenuation Attenuation of the output level and envelope.
+     * @return A Q20 sample.
+     */
+    static int sine(int phase, int attenuation) {
+        int index = (phase >>> 20) & 1023;
+
+        if ((phase & 0x40000000) != 0) {
+            index = 1023 - index;
+        }
+
+        final int value = gain(LOG_SIN[index] + attenuation);
+
+        return (phase < 0) ? -value : value;
+    }
+
+    // the other shapes are built from the phase directly, in Q31, then scaled by the gain
+
+    static int square(int phase, int gain) {
+        return (phase < 0) ? -gain : gain;
+    }
+
+    // starts at 0 going up, peaks at a quarter of the cycle
+    static int triangle(int phase, int gain) {
+        final long position = phase & 0xFFFFFFFFL;
+        final long value;
+
+        if (position < 0x40000000L) {
+            value = position << 2;
+        } else if (position < 0xC0000000L) {
+            value = 0x200000000L - (position << 2);
+        } else {
+            value = (position << 2) - 0x400000000L;
+        }
+
+        return (int) ((value * gain) >> 32);
+    }
+
+    // starts at 0 going up, jumps to -1 at half of the cycle
+    static int sawtooth(int phase, int gain) {
+        return (int) (((long) phase * gain) >> 31);
+    }
+
+}
@@ -1,8 +1,24 @@
 package com.jbatista.wmo.synthesis;
 
+import com.jbatista.wmo.Clipping;
+import com.jbatista.wmo.Engine;
+import com.jbatista.wmo.EngineQuality;
 import com.jbatista.wmo.KeyboardNote;
+import com.jbatista.wmo.VoiceStealing;
 import com.jbatista.wmo.preset.InstrumentPreset;
+import com.jbatista.wmo.util.EventQueue;
 import com.jbatista.wmo.util.MathFunctions;
+import com.jbatista.wmo.util.PcmConverter;
+import com.jbatista.wmo.util.WorkerPool;
+
+import javax.sound.sampled.AudioFormat;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
 
 /**
  * <p>Represents an entire keyboard and its functions.</p>
@@ -13,21 +29,71 @@ import com.jbatista.wmo.util.MathFunctions;
  * @see #setPreset(InstrumentPreset)
  */
 public class Instrument {
-    private static final KeyboardNote[] NOTES = KeyboardNote.values();
 
-    InstrumentPreset preset = new InstrumentPreset();
+    // events queued by other threads, the value is [type:8][unused:24][data1:16][data2:16], the time is a frame position
+    private static final int PRESS_KEY = 1;
+    private static final int RELEASE_KEY = 2;
+    private static final int CONTROL_CHANGE = 3;
+    private static final int PITCH_BEND = 4;
+    private static final int PRESET = 5;
+
+    // the preset used by new voices, replaced as a whole so it can be set from any thread
+    private final AtomicReference<CompiledPreset> compiledPreset;
+    // last version seen by the rendering thread, voices on it move to the versions compiled from its edits
+    private CompiledPreset renderedPreset;
+    // edits are compiled by the PresetCompiler, instruments waiting for it are linked through nextCompilation
+    final AtomicBoolean compilationRequested = new AtomicBoolean();
+    Instrument nextCompilation;
+    EngineQuality engineQuality = EngineQuality.EXACT;
+    Engine engine = Engine.FLOATING_POINT;
 
-    private int keyId = 0;
-    private final boolean[] keysQueue = new boolean[132];
+    // state of the sounding keys, one bit per active voice, and the voice of each key
+    VoicePool voices = new VoicePool(32);
+    private long[] activeVoices = new long[1];
+    private final int[] keyVoice = new int[132];
+    // transposed key of each key pressed, so it is released on the same key even if the transposition changes meanwhile
+    private final int[] pressedKey = new int[132];
+    private long startCount;
+    private VoiceStealing voiceStealing = VoiceStealing.SAME_NOTE;
 
     private final int sampleRate;
     private final Algorithm algorithm;
     private final FilterChain filterChain = new FilterChain();
 
+    // voices of the current block, and the ones that finished during it
+    private int[] blockVoices = new int[voices.size];
+    private boolean[] finishedVoices = new boolean[voices.size];
+    private int blockVoiceCount;
+    private int blockFrames;
+
+    // parallel rendering, one set of buffers per thread
+    private final IntConsumer renderPartition = this::renderPartition;
+    private final EventQueue events = new EventQueue(1024);
+    private final EventQueue.Handler eventScheduler = this::scheduleEvent;
+    private int pitchBend;
+    private volatile double pan;
+
+    // frames rendered so far, and the events taken from the queue waiting for their frame, sorted by frame
+    private volatile long framePosition;
+    private final long[] pendingFrames = new long[1024];
+    private final long[] pendingEvents = new long[1024];
+    private final Object[] pendingAttachments = new Object[1024];
+    private int pendingHead;
+    private int pendingCount;
+    // set by any thread, outside of the queue, so it doesn't compete with the thread producing the events
+    private volatile boolean releaseAllRequested;
+    private RenderBuffers[] renderBuffers = new RenderBuffers[]{new RenderBuffers()};
+    private WorkerPool workerPool;
+    private int parallelThreshold = 16;
+    private int partitions;
+
     private int intFrameSample;
     private short shortFrameSample;
     private float floatFrameSample;
     private double doubleFrameSample;
+    private final double[] frameBuffer = new double[1];
+    private double[] blockBuffer = new double[0];
+    private final PcmConverter pcmConverter = new PcmConverter();
     private final byte[] buffer16bit = new byte[]{0, 0, 0, 0};
     private final short[] shortBuffer = new short[]{0, 0};
     private final float[] floatBuffer = new float[]{0, 0};
@@ -35,6 +101,13 @@ public class Instrument {
     public Instrument(int sampleRate) {
         this.sampleRate = sampleRate;
         this.algorithm = new Algorithm(sampleRate, this);
+        this.compiledPreset = new AtomicReference<>(new CompiledPreset(new InstrumentPreset(), sampleRate));
+        this.renderedPreset = compiledPreset.get();
+
+        PresetCompiler.start();
+
+        Arrays.fill(keyVoice, -1);
+        Arrays.fill(pressedKey, -1);
     }
 
     public int getSampleRate() {
@@ -46,12 +119,151 @@ public class Instrument {
     }
 
     public InstrumentPreset getPreset() {
-        return preset;
+        return compiledPreset.get().preset;
     }
 
+    /**
+     * <p>Defines the parameters of the instrument, can be called from any thread.</p>
+     * <p>Everything that depends only on the preset is calculated by the calling thread, and the result is picked up by the rendering thread at the start of the next block, without locks.
+     * Keys pressed afterwards use the new preset, keys that are sounding finish with the one they started with.</p>
+     * <p>Changes made to the preset afterwards are detected at the start of the next block and compiled by a separate thread, then picked up at the start of a later block,
+     * sounding keys keep their pitch and level, and follow the new envelope from their next stage on.</p>
+     *
+     * @param preset A preset.
+     */
     public void setPreset(InstrumentPreset preset) {
-        silenceAllKeys();
-        this.preset = preset;
+        compiledPreset.set(new CompiledPreset(preset, sampleRate));
+    }
+
+    public EngineQuality getEngineQuality() {
+        return engineQuality;
+    }
+
+    /**
+     * <p>Defines how precise the oscillators are, lower settings allow more keys to be played at the same time.</p>
+     * <p>Defaults to <b>{@link EngineQuality#EXACT}</b>.</p>
+     *
+     * @param engineQuality A quality setting.
+     */
+    public void setEngineQuality(EngineQuality engineQuality) {
+        this.engineQuality = engineQuality;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * <p>Defines the arithmetic used to produce audio, keys that are sounding are silenced.</p>
+     * <p>Defaults to <b>{@link Engine#FLOATING_POINT}</b>.</p>
+     *
+     * @param engine An engine.
+     */
+    public void setEngine(Engine engine) {
+        if (this.engine != engine) {
+            silenceAllKeys();
+            this.engine = engine;
+        }
+    }
+
+    public int getMaxPolyphony() {
+        return voices.polyphony;
+    }
+
+    /**
+     * <p>Defines how many keys can sound at the same time, memory used by the instrument and the worst case render time are proportional to this value.</p>
+     * <p>When every voice is in use, pressing a new key takes a voice as defined by {@link #setVoiceStealing(VoiceStealing)}.
+     * Keys that are sounding are faded out in a few milliseconds, the same way of a voice that is taken, and have to be pressed again.</p>
+     * <p>Defaults to <b>32</b>.</p>
+     *
+     * @param maxPolyphony A value from 1 to 132.
+     */
+    public void setMaxPolyphony(int maxPolyphony) {
+        maxPolyphony = Math.max(1, Math.min(maxPolyphony, 132));
+
+        if (maxPolyphony != voices.polyphony) {
+            final VoicePool previous = voices;
+            final long[] previousActive = activeVoices;
+            int sounding = 0;
+
+            for (long word : previousActive) {
+                sounding += Long.bitCount(word);
+            }
+
+            // every sounding voice moves to a fade slot of the new pool, and fades out from there instead of being cut
+            voices = new VoicePool(maxPolyphony, sounding);
+            activeVoices = new long[(voices.size + 63) >> 6];
+            blockVoices = new int[voices.size];
+            finishedVoices = new boolean[voices.size];
+            Arrays.fill(keyVoice, -1);
+            Arrays.fill(pressedKey, -1);
+
+            int fade = voices.polyphony;
+            for (int word = 0; word < previousActive.length; word++) {
+                for (long bits = previousActive[word]; bits != 0; bits &= bits - 1) {
+                    previous.copy((word << 6) + Long.numberOfTrailingZeros(bits), voices, fade);
+                    voices.released[fade] = true;
+                    activeVoices[fade >> 6] |= 1L << fade;
+
+                    algorithm.fade(fade);
+                    fade++;
+                }
+            }
+        }
+    }
+
+    public VoiceStealing getVoiceStealing() {
+        return voiceStealing;
+    }
+
+    /**
+     * <p>Defines which voice is taken when a key is pressed and every voice is in use, and what happens when a key is pressed again during its release.</p>
+     * <p>Defaults to <b>{@link VoiceStealing#SAME_NOTE}</b>.</p>
+     *
+     * @param voiceStealing A policy.
+     */
+    public void setVoiceStealing(VoiceStealing voiceStealing) {
+        this.voiceStealing = voiceStealing;
+    }
+
+    public WorkerPool getWorkerPool() {
+        return workerPool;
+    }
+
+    /**
+     * <p>Defines the threads used to render the keys of a block, each thread renders a part of the keys and the parts are added together.</p>
+     * <p>Defaults to <b>null</b>, every key is rendered on the calling thread.</p>
+     *
+     * @param workerPool A pool, can be shared with other instruments.
+     * @see #setParallelThreshold(int)
+     */
+    public void setWorkerPool(WorkerPool workerPool) {
+        this.workerPool = workerPool;
+
+        final int size = (workerPool == null) ? 1 : workerPool.getParallelism();
+        if (renderBuffers.length < size) {
+            renderBuffers = Arrays.copyOf(renderBuffers, size);
+
+            for (int i = 0; i < size; i++) {
+                if (renderBuffers[i] == null) {
+                    renderBuffers[i] = new RenderBuffers();
+                }
+            }
+        }
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * <p>Defines how many keys must be sounding for the {@link #setWorkerPool(WorkerPool) worker pool} to be used, fewer keys are rendered on the calling thread.</p>
+     * <p>Defaults to <b>16</b>.</p>
+     *
+     * @param parallelThreshold A value from 2 to 132.
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = Math.max(2, Math.min(parallelThreshold, 132));
     }
 
     /**
@@ -64,21 +276,204 @@ public class Instrument {
      * @see #getFloatFrame
      */
     public double getSample() {
-        doubleFrameSample = 0;
+        render(frameBuffer, 0, 1);
+        doubleFrameSample = frameBuffer[0];
+
+        return doubleFrameSample;
+    }
+
+    /**
+     * <p>Fills a buffer with mono PCM samples, producing the same output as calling {@link #getSample} once for every frame.</p>
+     * <p>Every active key is rendered for the entire block before moving to the next one, and the {@link FilterChain} is applied at the end.</p>
+     *
+     * @param buffer The buffer that will receive the samples, its previous content is overwritten.
+     * @param offset Position of the buffer where the first frame is written.
+     * @param frames How many frames are going to be produced.
+     * @see #getSample
+     */
+    public void render(double[] buffer, int offset, int frames) {
+        final int end = offset + frames;
+
+        events.drain(eventScheduler, pendingFrames.length - pendingCount);
+        final CompiledPreset current = currentPreset();
+
+        if (releaseAllRequested) {
+            releaseAllRequested = false;
+            releaseAllKeys();
+        }
 
-        for (keyId = 0; keyId < 132; keyId++) {
-            if (keysQueue[keyId]) {
-                doubleFrameSample += algorithm.getSample(keyId);
+        Arrays.fill(buffer, offset, end, 0);
 
-                if (!algorithm.hasActiveCarriers(keyId)) {
-                    keysQueue[keyId] = false;
+        // the block is split where queued events happen
+        long frame;
+        int length;
+        for (int position = offset; position < end; position += length) {
+            frame = framePosition + (position - offset);
+
+            while ((pendingCount > 0) && (pendingFrames[pendingHead] <= frame)) {
+                applyPendingEvent();
+            }
+
+            length = (pendingCount > 0)
+                    ? (int) Math.min(end - position, pendingFrames[pendingHead] - frame)
+                    : end - position;
+
+            renderVoices(buffer, position, length);
+        }
+
+        framePosition += frames;
+
+        filterChain.process(buffer, offset, frames);
+
+        final double gain = current.preset.getGain();
+        for (int i = offset; i < end; i++) {
+            buffer[i] *= gain;
+        }
+    }
+
+    // adds every sounding voice to the buffer
+    private void renderVoices(double[] buffer, int offset, int frames) {
+        blockVoiceCount = 0;
+        for (int word = 0; word < activeVoices.length; word++) {
+            for (long bits = activeVoices[word]; bits != 0; bits &= bits - 1) {
+                blockVoices[blockVoiceCount++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+        }
+
+        if ((workerPool == null) || (blockVoiceCount < parallelThreshold)) {
+            for (int i = 0; i < blockVoiceCount; i++) {
+                finishedVoices[i] = !algorithm.render(blockVoices[i], renderBuffers[0], buffer, offset, frames);
+            }
+        } else {
+            blockFrames = frames;
+            partitions = Math.min(workerPool.getParallelism(), blockVoiceCount);
+
+            workerPool.run(partitions, renderPartition);
+
+            // added in a fixed order, the result is the same every time
+            for (int partition = 0; partition < partitions; partition++) {
+                final double[] partial = renderBuffers[partition].partial(frames);
+
+                for (int i = 0; i < frames; i++) {
+                    buffer[offset + i] += partial[i];
                 }
             }
         }
 
-        doubleFrameSample = preset.getGain() * filterChain.getResult(doubleFrameSample);
+        for (int i = 0; i < blockVoiceCount; i++) {
+            if (finishedVoices[i]) {
+                freeVoice(blockVoices[i]);
+            }
+        }
+    }
+
+    // every partition takes one voice out of each group of voices, so they get about the same amount of work
+    private void renderPartition(int partition) {
+        final RenderBuffers buffers = renderBuffers[partition];
+        final double[] partial = buffers.partial(blockFrames);
 
-        return doubleFrameSample;
+        Arrays.fill(partial, 0, blockFrames, 0);
+
+        for (int i = partition; i < blockVoiceCount; i += partitions) {
+            finishedVoices[i] = !algorithm.render(blockVoices[i], buffers, partial, 0, blockFrames);
+        }
+    }
+
+    /**
+     * <p>Fills a buffer with mono PCM samples.</p>
+     *
+     * @param buffer The buffer that will receive the samples, its previous content is overwritten.
+     * @param offset Position of the buffer where the first frame is written.
+     * @param frames How many frames are going to be produced.
+     * @see #render(double[], int, int)
+     */
+    public void render(float[] buffer, int offset, int frames) {
+        render(blockBuffer(frames), 0, frames);
+
+        for (int i = 0; i < frames; i++) {
+            buffer[offset + i] = (float) blockBuffer[i];
+        }
+    }
+
+    /**
+     * <p>Fills a buffer with stereo PCM frames, composed of two identical channels, interleaved: <code>[L][R][L][R]...</code>.</p>
+     * <p>Produces the same output as calling {@link #getFloatFrame} once for every frame.</p>
+     *
+     * @param buffer The buffer that will receive the samples, must have room for <code>frames * 2</code> values.
+     * @param offset Position of the buffer where the first value is written.
+     * @param frames How many frames are going to be produced.
+     * @see #render(double[], int, int)
+     */
+    public void renderInterleaved(float[] buffer, int offset, int frames) {
+        render(blockBuffer(frames), 0, frames);
+
+        // an instrument is mono, the pan is applied by the mixer
+        for (int i = 0; i < frames; i++) {
+            buffer[offset + 2 * i] = (float) blockBuffer[i];
+            buffer[offset + 2 * i + 1] = (float) blockBuffer[i];
+        }
+    }
+
+    /**
+     * <p>Fills the remaining space of a buffer with PCM frames, the mono output is repeated on every channel of the format.</p>
+     * <p>The whole block is converted at once, suited for {@link javax.sound.sampled.SourceDataLine#write(byte[], int, int)} with a wrapped array,
+     * or for a direct buffer handed to native audio code.</p>
+     *
+     * @param buffer The buffer that will receive the frames, starting at its position, which is advanced.
+     * @param format The format of the frames, signed 16, 24 or 32 bit samples, or 32 bit float samples, in any endianness.
+     * @return How many frames were produced.
+     * @see PcmConverter
+     */
+    public int render(ByteBuffer buffer, AudioFormat format) {
+        final int frames = pcmConverter.frames(buffer, format);
+
+        render(blockBuffer(frames), 0, frames);
+        pcmConverter.write(blockBuffer, 0, frames, 1, buffer, format);
+
+        return frames;
+    }
+
+    /**
+     * <p>Fills the remaining space of a buffer with 16 bit PCM frames, the mono output is repeated on every channel.</p>
+     *
+     * @param buffer   The buffer that will receive the frames, starting at its position, which is advanced.
+     * @param channels How many channels each frame has.
+     * @return How many frames were produced.
+     * @see #render(ByteBuffer, AudioFormat)
+     */
+    public int render(ShortBuffer buffer, int channels) {
+        final int frames = buffer.remaining() / Math.max(1, channels);
+
+        render(blockBuffer(frames), 0, frames);
+        pcmConverter.write(blockBuffer, 0, frames, 1, buffer, channels);
+
+        return frames;
+    }
+
+    /**
+     * <p>Fills the remaining space of a buffer with float PCM frames, the mono output is repeated on every channel.</p>
+     *
+     * @param buffer   The buffer that will receive the frames, starting at its position, which is advanced.
+     * @param channels How many channels each frame has.
+     * @return How many frames were produced.
+     * @see #render(ByteBuffer, AudioFormat)
+     */
+    public int render(FloatBuffer buffer, int channels) {
+        final int frames = buffer.remaining() / Math.max(1, channels);
+
+        render(blockBuffer(frames), 0, frames);
+        pcmConverter.write(blockBuffer, 0, frames, 1, buffer, channels);
+
+        return frames;
+    }
+
+    // grows only when a bigger block is requested
+    private double[] blockBuffer(int frames) {
+        if (blockBuffer.length < frames) {
+            blockBuffer = new double[frames];
+        }
+
+        return blockBuffer;
     }
 
     /**
@@ -93,7 +488,7 @@ public class Instrument {
         getSample();
         intFrameSample = (int) (doubleFrameSample * MathFunctions.SIGNED_16_BIT_MAX);
 
-        // TODO channel stuff, [L][R]
+        // an instrument is mono, the pan is applied by the mixer
         MathFunctions.primitiveTo16bit(bigEndian, buffer16bit, 0, intFrameSample);
         MathFunctions.primitiveTo16bit(bigEndian, buffer16bit, 2, intFrameSample);
 
@@ -101,7 +496,7 @@ public class Instrument {
     }
 
     /**
-     * <p>Creates a stereo PCM frame, composed of two identical channels, in a interleaved array: <code>[L][R]</code>.</p>
+     * <p>Creates a stereo 16bit PCM frame, composed of two identical channels, in a interleaved array: <code>[L][R]</code>.</p>
      * <p>Ideal to be used with libraries that support this kind of data, like <a href="https://libgdx.badlogicgames.com/">LibGdx</a>.</p>
      *
      * @return A single audio frame.
@@ -109,9 +504,9 @@ public class Instrument {
      */
     public short[] getShortFrame() {
         getSample();
-        shortFrameSample = (short) doubleFrameSample;
+        shortFrameSample = (short) (Math.max(-1, Math.min(doubleFrameSample, 1)) * MathFunctions.SIGNED_16_BIT_MAX);
 
-        // TODO channel stuff, [L][R]
+        // an instrument is mono, the pan is applied by the mixer
         shortBuffer[0] = shortFrameSample;
         shortBuffer[1] = shortFrameSample;
 
@@ -129,7 +524,7 @@ public class Instrument {
         getSample();
         floatFrameSample = (float) doubleFrameSample;
 
-        // TODO channel stuff, [L][R]
+        // an instrument is mono, the pan is applied by the mixer
         floatBuffer[0] = floatFrameSample;
         floatBuffer[1] = floatFrameSample;
 
@@ -155,11 +550,30 @@ public class Instrument {
      * @see Oscillator
      */
     public void pressKey(int keyId) {
-        keyId += preset.getTranspose();
+        if ((keyId < 0) || (keyId > 131)) {
+            return;
+        }
+
+        final CompiledPreset current = compiledPreset.get();
+        final int transposed = keyId + current.preset.getTranspose();
 
-        if ((keyId >= 0) || (keyId <= 131)) {
-            algorithm.start(keyId, NOTES[keyId].getFrequency());
-            keysQueue[keyId] = true;
+        // pressed again with another transposition, the previous key would never be released
+        if ((pressedKey[keyId] >= 0) && (pressedKey[keyId] != transposed)) {
+            releaseTransposedKey(pressedKey[keyId]);
+        }
+
+        pressedKey[keyId] = ((transposed >= 0) && (transposed <= 131)) ? transposed : -1;
+        keyId = transposed;
+
+        if ((keyId >= 0) && (keyId <= 131)) {
+            final int previous = keyVoice[keyId];
+            final boolean retrigger = (previous >= 0) && (!voices.released[previous] || (voiceStealing == VoiceStealing.SAME_NOTE));
+            final int voice = retrigger ? previous : allocateVoice(keyId);
+
+            voices.preset[voice] = current;
+            voices.startOrder[voice] = startCount++;
+            voices.released[voice] = false;
+            algorithm.start(voice, keyId, retrigger);
         }
     }
 
@@ -174,7 +588,7 @@ public class Instrument {
     }
 
     /**
-     * Releases a key and stops the carrier chain defined by the {@link Algorithm}, applying the defined transposition setting.
+     * Releases a key and stops the carrier chain defined by the {@link Algorithm}, applying the transposition setting the key was pressed with.
      * <p>Use this method to interact with the instrument.</p>
      *
      * @param keyId ID representing an unique key, in the range of 0 to 131.
@@ -182,30 +596,467 @@ public class Instrument {
      * @see Oscillator
      */
     public void releaseKey(int keyId) {
-        keyId += preset.getTranspose();
-
-        if ((keyId >= 0) || (keyId <= 131)) {
-            algorithm.stop(keyId);
+        if ((keyId >= 0) && (keyId <= 131) && (pressedKey[keyId] >= 0)) {
+            releaseTransposedKey(pressedKey[keyId]);
+            pressedKey[keyId] = -1;
         }
     }
 
     /**
      * <p>Releases all keys.</p>
      *
-     * @see Algorithm#stopAll
+     * @see Algorithm#stop
      */
     public void releaseAllKeys() {
-        algorithm.stopAll();
+        for (int word = 0; word < activeVoices.length; word++) {
+            for (long bits = activeVoices[word]; bits != 0; bits &= bits - 1) {
+                release((word << 6) + Long.numberOfTrailingZeros(bits));
+            }
+        }
+    }
+
+    /**
+     * <p>Same as {@link #releaseAllKeys()}, but can be called from any thread, the keys are released by the rendering thread at the start of the next block.</p>
+     * <p>Unlike the <code>queue</code> methods, this one can be called by more than one thread, and is never dropped.</p>
+     */
+    public void requestReleaseAllKeys() {
+        releaseAllRequested = true;
     }
 
     /**
      * <p>Silences all keys.</p>
      *
-     * @see Algorithm#stopAll
+     * @see Algorithm#silence
      */
     public void silenceAllKeys() {
-        algorithm.silenceAll();
+        for (int word = 0; word < activeVoices.length; word++) {
+            for (long bits = activeVoices[word]; bits != 0; bits &= bits - 1) {
+                algorithm.silence((word << 6) + Long.numberOfTrailingZeros(bits));
+            }
+        }
+    }
+
+    public Clipping getClipping() {
+        return pcmConverter.getClipping();
+    }
+
+    /**
+     * <p>Defines how samples out of range are handled by the methods producing PCM buffers.</p>
+     * <p>Defaults to <b>{@link Clipping#HARD}</b>.</p>
+     *
+     * @param clipping The clipping.
+     * @see #render(ByteBuffer, AudioFormat)
+     */
+    public void setClipping(Clipping clipping) {
+        pcmConverter.setClipping(clipping);
     }
 
+    public int getPitchBend() {
+        return pitchBend;
+    }
+
+    /**
+     * <p>Changes the pitch of every key, up to 2 semitones up or down.</p>
+     * <p>Defaults to <b>0</b>.</p>
+     *
+     * @param pitchBend A value from -8192 to 8191, as sent by MIDI pitch bend messages minus 8192.
+     */
+    public void setPitchBend(int pitchBend) {
+        this.pitchBend = Math.max(-8192, Math.min(pitchBend, 8191));
+        algorithm.pitchOffset = Math.pow(2, this.pitchBend / 8192d * 2 / 12);
+    }
+
+    public double getPan() {
+        return pan;
+    }
+
+    /**
+     * <p>Defines the position of the instrument between the left and right channels, used when it is played by a {@link com.jbatista.wmo.util.Mixer}.</p>
+     * <p>The output of the instrument itself is mono, and is not affected.</p>
+     * <p>Defaults to <b>0</b>, center.</p>
+     *
+     * @param pan A value from -1, left, to 1, right.
+     * @see com.jbatista.wmo.util.Mixer#renderInterleaved(double[], int, int)
+     */
+    public void setPan(double pan) {
+        this.pan = Math.max(-1, Math.min(pan, 1));
+    }
+
+    /**
+     * <p>Applies a MIDI control change message, the supported controllers are:</p>
+     * <ul>
+     *     <li><b>10</b>, pan: {@link #setPan(double)}, 0 is left, 64 is center and 127 is right.</li>
+     *     <li><b>120</b>, all sound off: {@link #silenceAllKeys()}.</li>
+     *     <li><b>121</b>, reset all controllers: sets the pitch bend to 0.</li>
+     *     <li><b>123</b>, all notes off: {@link #releaseAllKeys()}.</li>
+     * </ul>
+     * <p>Other controllers are ignored.</p>
+     *
+     * @param controller The controller number, from 0 to 127.
+     * @param value      The controller value, from 0 to 127.
+     */
+    public void controlChange(int controller, int value) {
+        switch (controller) {
+            case 0x0A:
+                setPan((value - 64) / 63d);
+                break;
+
+            case 0x78:
+                silenceAllKeys();
+                break;
+
+            case 0x79:
+                setPitchBend(0);
+                break;
+
+            case 0x7B:
+                releaseAllKeys();
+                break;
+
+            default:
+                // controller not implemented
+                break;
+        }
+    }
+
+    /**
+     * @return How many frames were rendered since the instrument was created, the position on its timeline of the next frame to be rendered.
+     * @see #queuePressKey(int, long)
+     */
+    public long getFramePosition() {
+        return framePosition;
+    }
+
+    /**
+     * <p>Same as {@link #pressKey(int)}, but can be called from any thread. The key is pressed by the rendering thread at the start of the next block.</p>
+     * <p>The <code>queue</code> methods are meant to be called by a single thread, like the MIDI input, while another one renders the audio.
+     * Neither side waits for the other, and nothing is allocated.</p>
+     *
+     * @param keyId ID representing an unique key, in the range of 0 to 131.
+     * @return False if too many events are waiting, in which case this one is dropped.
+     */
+    public boolean queuePressKey(int keyId) {
+        return queuePressKey(keyId, Long.MIN_VALUE);
+    }
+
+    /**
+     * <p>Same as {@link #queuePressKey(int)}, the key is pressed exactly on the given frame, splitting the block being rendered if needed.</p>
+     * <p>Events are applied in frame order, events for the same frame in the order they were queued. An event for a frame that was already rendered is applied at the start of the next block.</p>
+     *
+     * @param keyId ID representing an unique key, in the range of 0 to 131.
+     * @param frame Position on the timeline of the instrument, see {@link #getFramePosition()}.
+     * @return False if too many events are waiting, in which case this one is dropped.
+     */
+    public boolean queuePressKey(int keyId, long frame) {
+        return queue(frame, PRESS_KEY, keyId, 0, null);
+    }
+
+    /**
+     * <p>Same as {@link #releaseKey(int)}, see {@link #queuePressKey(int)}.</p>
+     *
+     * @param keyId ID representing an unique key, in the range of 0 to 131.
+     * @return False if too many events are waiting, in which case this one is dropped.
+     */
+    public boolean queueReleaseKey(int keyId) {
+        return queueReleaseKey(keyId, Long.MIN_VALUE);
+    }
+
+    /**
+     * <p>Same as {@link #releaseKey(int)}, see {@link #queuePressKey(int, long)}.</p>
+     *
+     * @param keyId ID representing an unique key, in the range of 0 to 131.
+     * @param frame Position on the timeline of the instrument, see {@link #getFramePosition()}.
+     * @return False if too many events are waiting, in which case this one is dropped.
+     */
+    public boolean queueReleaseKey(int keyId, long frame) {
+        return queue(frame, RELEASE_KEY, keyId, 0, null);
+    }
+
+    /**
+     * <p>Same as {@link #controlChange(int, int)}, see {@link #queuePressKey(int)}.</p>
+     *
+     * @param controller The controller number, from 0 to 127.
+     * @param value      The controller value, from 0 to 127.
+     * @return False if too many events are waiting, in which case this one is dropped.
+     */
+    public boolean queueControlChange(int controller, int value) {
+        return queueControlChange(controller, value, Long.MIN_VALUE);
+    }
+
+    /**
+     * <p>Same as {@link #controlChange(int, int)}, see {@link #queuePressKey(int, long)}.</p>
+     *
+     * @param controller The controller number, from 0 to 127.
+     * @param value      The controller value, from 0 to 127.
+     * @param frame      Position on the timeline of the instrument, see {@link #getFramePosition()}.
+     * @return False if too many events are waiting, in which case this one is dropped.
+     */
+    public boolean queueControlChange(int controller, int value, long frame) {
+        return queue(frame, CONTROL_CHANGE, controller, value, null);
+    }
+
+    /**
+     * <p>Same as {@link #setPitchBend(int)}, see {@link #queuePressKey(int)}.</p>
+     *
+     * @param pitchBend A value from -8192 to 8191.
+     * @return False if too many events are waiting, in which case this one is dropped.
+     */
+    public boolean queuePitchBend(int pitchBend) {
+        return queuePitchBend(pitchBend, Long.MIN_VALUE);
+    }
+
+    /**
+     * <p>Same as {@link #setPitchBend(int)}, see {@link #queuePressKey(int, long)}.</p>
+     *
+     * @param pitchBend A value from -8192 to 8191.
+     * @param frame     Position on the timeline of the instrument, see {@link #getFramePosition()}.
+     * @return False if too many events are waiting, in which case this one is dropped.
+     */
+    public boolean queuePitchBend(int pitchBend, long frame) {
+        return queue(frame, PITCH_BEND, pitchBend, 0, null);
+    }
+
+    /**
+     * <p>Same as {@link #setPreset(InstrumentPreset)}, see {@link #queuePressKey(int)}.</p>
+     * <p>The preset is processed by the calling thread, it takes effect in order with the other queued events.</p>
+     *
+     * @param preset A preset.
+     * @return False if too many events are waiting, in which case this one is dropped.
+     */
+    public boolean queuePreset(InstrumentPreset preset) {
+        return queuePreset(preset, Long.MIN_VALUE);
+    }
+
+    /**
+     * <p>Same as {@link #queuePreset(InstrumentPreset)}, see {@link #queuePressKey(int, long)}.</p>
+     *
+     * @param preset A preset.
+     * @param frame  Position on the timeline of the instrument, see {@link #getFramePosition()}.
+     * @return False if too many events are waiting, in which case this one is dropped.
+     */
+    public boolean queuePreset(InstrumentPreset preset, long frame) {
+        return queue(frame, PRESET, 0, 0, new CompiledPreset(preset, sampleRate));
+    }
+
+    private boolean queue(long frame, int type, int data1, int data2, Object attachment) {
+        return events.offer(frame, ((long) type << 56) | ((long) (data1 & 0xFFFF) << 16) | (data2 & 0xFFFF), attachment);
+    }
+
+    // events wait on the instrument until the block reaches their frame, usually they arrive in order and are just appended
+    private void scheduleEvent(long frame, long event, Object attachment) {
+        int index = pendingCount++;
+        int slot = (pendingHead + index) % pendingFrames.length;
+        int previous;
+
+        while ((index > 0) && (pendingFrames[previous = (pendingHead + index - 1) % pendingFrames.length] > frame)) {
+            pendingFrames[slot] = pendingFrames[previous];
+            pendingEvents[slot] = pendingEvents[previous];
+            pendingAttachments[slot] = pendingAttachments[previous];
+
+            slot = previous;
+            index--;
+        }
+
+        pendingFrames[slot] = frame;
+        pendingEvents[slot] = event;
+        pendingAttachments[slot] = attachment;
+    }
+
+    private void applyPendingEvent() {
+        final long event = pendingEvents[pendingHead];
+        final Object attachment = pendingAttachments[pendingHead];
+        final int data1 = (short) (event >>> 16);
+        final int data2 = (short) event;
+
+        pendingAttachments[pendingHead] = null;
+        pendingHead = (pendingHead + 1) % pendingFrames.length;
+        pendingCount--;
+
+        switch ((int) (event >>> 56)) {
+            case PRESS_KEY:
+                pressKey(data1);
+                break;
+
+            case RELEASE_KEY:
+                releaseKey(data1);
+                break;
+
+            case CONTROL_CHANGE:
+                controlChange(data1, data2);
+                break;
+
+            case PITCH_BEND:
+                setPitchBend(data1);
+                break;
+
+            case PRESET:
+                compiledPreset.set((CompiledPreset) attachment);
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    // edits made to the preset are compiled by another thread, here sounding voices of the edited preset move to the new version
+    private CompiledPreset currentPreset() {
+        final CompiledPreset current = compiledPreset.get();
+
+        if (current != renderedPreset) {
+            if (current.preset == renderedPreset.preset) {
+                for (int voice = 0; voice < voices.size; voice++) {
+                    if (voices.preset[voice] == renderedPreset) {
+                        voices.preset[voice] = current;
+                    }
+                }
+            }
+
+            renderedPreset = current;
+        }
+
+        if (!current.isCurrent()) {
+            PresetCompiler.request(this);
+        }
+
+        return current;
+    }
+
+    // called by the PresetCompiler, a preset set by another thread in the meantime takes precedence
+    void compilePresetEdits() {
+        final CompiledPreset current = compiledPreset.get();
+
+        if (!current.isCurrent()) {
+            compiledPreset.compareAndSet(current, new CompiledPreset(current.preset, sampleRate, current));
+        }
+    }
+
+    private void releaseTransposedKey(int keyId) {
+        if (keyVoice[keyId] >= 0) {
+            release(keyVoice[keyId]);
+        }
+    }
+
+    private void release(int voice) {
+        if (!voices.released[voice]) {
+            voices.released[voice] = true;
+            algorithm.stop(voice);
+        }
+    }
+
+    // a free voice if there is one, otherwise one taken from another key
+    private int allocateVoice(int keyId) {
+        int voice = firstFreeVoice(0, voices.polyphony);
+
+        if (voice < 0) {
+            voice = stealableVoice();
+
+            fadeVoice(voice);
+            freeVoice(voice);
+        }
+
+        voices.key[voice] = keyId;
+        keyVoice[keyId] = voice;
+        activeVoices[voice >> 6] |= 1L << voice;
+
+        return voice;
+    }
+
+    private int stealableVoice() {
+        int voice = 0;
+
+        switch (voiceStealing) {
+            case QUIETEST:
+                double amplitude = algorithm.getAmplitude(0);
+                double candidate;
+
+                for (int i = 1; i < voices.polyphony; i++) {
+                    candidate = algorithm.getAmplitude(i);
+
+                    if (candidate < amplitude) {
+                        amplitude = candidate;
+                        voice = i;
+                    }
+                }
+                break;
+
+            case RELEASED_FIRST:
+                voice = -1;
+                for (int i = 0; i < voices.polyphony; i++) {
+                    if (voices.released[i] && ((voice < 0) || (voices.startOrder[i] < voices.startOrder[voice]))) {
+                        voice = i;
+                    }
+                }
+
+                if (voice >= 0) {
+                    break;
+                }
+
+                voice = oldestVoice(0, voices.polyphony);
+                break;
+
+            default:
+                voice = oldestVoice(0, voices.polyphony);
+                break;
+        }
+
+        return voice;
+    }
+
+    // the stolen voice keeps sounding on a spare slot while it fades out, the oldest fading voice gives its slot if there are none left
+    private void fadeVoice(int voice) {
+        int fade = firstFreeVoice(voices.polyphony, voices.size);
+
+        if (fade < 0) {
+            fade = oldestVoice(voices.polyphony, voices.size);
+        }
+
+        voices.copy(voice, fade);
+        voices.key[fade] = -1;
+        voices.released[fade] = true;
+        activeVoices[fade >> 6] |= 1L << fade;
+
+        algorithm.fade(fade);
+    }
+
+    private int firstFreeVoice(int from, int to) {
+        for (int word = from >> 6; word <= ((to - 1) >> 6); word++) {
+            long free = ~activeVoices[word];
+
+            if (word == (from >> 6)) {
+                free &= -1L << from;
+            }
+
+            if (free != 0) {
+                final int voice = (word << 6) + Long.numberOfTrailingZeros(free);
+
+                return (voice < to) ? voice : -1;
+            }
+        }
+
+        return -1;
+    }
+
+    private int oldestVoice(int from, int to) {
+        int voice = from;
+
+        for (int i = from + 1; i < to; i++) {
+            if (voices.startOrder[i] < voices.startOrder[voice]) {
+                voice = i;
+            }
+        }
+
+        return voice;
+    }
+
+    private void freeVoice(int voice) {
+        // a key pressed again during its release may already be on another voice
+        if ((voices.key[voice] >= 0) && (keyVoice[voices.key[voice]] == voice)) {
+            keyVoice[voices.key[voice]] = -1;
+        }
+
+        voices.key[voice] = -1;
+        voices.preset[voice] = null;
+        activeVoices[voice >> 6] &= ~(1L << voice);
+    }
 
 }
@@ -1,132 +1,314 @@
 package com.jbatista.wmo.synthesis;
 
+import com.jbatista.wmo.WaveForm;
 import com.jbatista.wmo.preset.OscillatorPreset;
 import com.jbatista.wmo.util.Dsp;
 import com.jbatista.wmo.util.MathFunctions;
+import com.jbatista.wmo.util.SineKernel;
+import com.jbatista.wmo.util.SineTable;
+
+import java.util.Arrays;
 
 /**
  * <p>Represents a digital oscillator.</p>
- * <p>Instances of this class are created by the {@link Algorithm} class. When initialized, it instantiates {@link EnvelopeGenerator} and {@link Breakpoint}.</p>
+ * <p>Instances of this class are created by the {@link Algorithm} class. When initialized, it instantiates {@link EnvelopeGenerator}.</p>
+ * <p>The state of each voice is kept by the {@link VoicePool} of the instrument, parameters are read from its {@link CompiledPreset}.</p>
  *
  * @see Algorithm
  * @see EnvelopeGenerator
- * @see Breakpoint
+ * @see VoicePool
+ * @see CompiledPreset
  */
 public class Oscillator {
 
     final int id;
     private final Instrument instrument;
 
-    private final double[] sineFrequency = new double[132];
     private final int sampleRate;
 
-    private int correctedOutputLevel;
-    private long previousTime;
-
     private final EnvelopeGenerator envelopeGenerator;
-    private final Breakpoint breakpoint;
 
     Oscillator(int id, int sampleRate, Instrument instrument) {
         this.id = id;
         this.sampleRate = sampleRate;
         this.instrument = instrument;
         this.envelopeGenerator = new EnvelopeGenerator(id, sampleRate, instrument);
-        this.breakpoint = new Breakpoint(id, instrument);
     }
 
     private OscillatorPreset oscillatorPreset() {
-        return instrument.preset.getOscillatorPresets()[id];
+        return instrument.getPreset().getOscillatorPresets()[id];
     }
 
     /**
-     * <p>Creates a mono audio sample frame based on the pitch and time offset, instantiated and controlled by the {@link Algorithm} it is bound to.</p>
+     * <p>Creates a mono audio sample frame based on the pitch and the phase of the key, instantiated and controlled by the {@link Algorithm} it is bound to.</p>
      * <p>The state of the oscillator is defined by the use of the methods {@link #start start} and {@link #stop stop}.</p>
-     * <p>If this oscillator has modulators, the other oscillators are started in chain.</p>
+     * <p>Every call advances the envelope and the phase, so it must be called once per frame.</p>
      *
-     * @param keyId       ID representing an unique key, in the range of 0 to 131.
+     * @param voice       Slot of the voice on the {@link VoicePool}.
      * @param pitchOffset Defines the value which will multiply the frequency, creating a pitch bend. (WIP)
-     * @param time        Time offset.
+     * @param modulation  Phase modulation received from other oscillators.
      * @return A single audio frame.
-     * @see Algorithm#getSample
+     * @see Algorithm#render
      */
-    double getSample(int keyId, double pitchOffset, double modulation, long time) {
-        if (oscillatorPreset().isMute()) {
+    double getSample(int voice, double pitchOffset, double modulation) {
+        final CompiledPreset compiledPreset = instrument.voices.preset[voice];
+
+        if (compiledPreset.mute[id]) {
             return 0;
         }
 
-        if (time != previousTime) {
-            envelopeGenerator.advanceEnvelope(keyId);
+        final VoicePool voices = instrument.voices;
+        final int index = voice * VoicePool.OSCILLATORS + id;
+
+        final double increment = pitchOffset * voices.phaseIncrement[index];
+        final double sample = Tables.OSCILLATOR_OUTPUT_LEVELS[voices.outputLevel[index]]
+                * envelopeGenerator.nextAmplitude(voice)
+                * (compiledPreset.bandLimited[id]
+                ? Dsp.bandLimitedOscillator(compiledPreset.waveForm[id], instrument.engineQuality.getSineTable(), voices.phase[index], increment, modulation)
+                : Dsp.oscillator(compiledPreset.waveForm[id], instrument.engineQuality.getSineTable(), voices.phase[index], modulation));
+
+        voices.phase[index] += increment;
+        voices.phase[index] -= (long) voices.phase[index];
+
+        return sample;
+    }
+
+    /**
+     * <p>Same as {@link #getSample}, for a block of consecutive frames.</p>
+     *
+     * @param voice       Slot of the voice on the {@link VoicePool}.
+     * @param pitchOffset Defines the value which will multiply the frequency, creating a pitch bend. (WIP)
+     * @param modulation  Phase modulation received from other oscillators, one value per frame.
+     * @param envelope    Scratch space for the envelope, one value per frame.
+     * @param output      Receives one sample per frame.
+     * @param frames      How many frames are going to be produced.
+     */
+    void render(int voice, double pitchOffset, double[] modulation, double[] envelope, double[] output, int frames) {
+        final CompiledPreset compiledPreset = instrument.voices.preset[voice];
+
+        if (compiledPreset.mute[id]) {
+            Arrays.fill(output, 0, frames, 0);
+            return;
+        }
+
+        final VoicePool voices = instrument.voices;
+        final int index = voice * VoicePool.OSCILLATORS + id;
+
+        final WaveForm waveForm = compiledPreset.waveForm[id];
+        final SineTable sineTable = instrument.engineQuality.getSineTable();
+        final boolean bandLimited = compiledPreset.bandLimited[id];
+        final double outputLevel = Tables.OSCILLATOR_OUTPUT_LEVELS[voices.outputLevel[index]];
+        final double increment = pitchOffset * voices.phaseIncrement[index];
+
+        envelopeGenerator.render(voice, envelope, frames);
+
+        // the most common case
+        if ((waveForm == WaveForm.SINE) && !bandLimited) {
+            voices.phase[index] = SineKernel.render(sineTable, voices.phase[index], increment, outputLevel, envelope, modulation, output, frames);
+            return;
+        }
+
+        double currentPhase = voices.phase[index];
+
+        for (int i = 0; i < frames; i++) {
+            output[i] = outputLevel
+                    * envelope[i]
+                    * (bandLimited
+                    ? Dsp.bandLimitedOscillator(waveForm, sineTable, currentPhase, increment, modulation[i])
+                    : Dsp.oscillator(waveForm, sineTable, currentPhase, modulation[i]));
+
+            currentPhase += increment;
+            currentPhase -= (long) currentPhase;
+        }
+
+        voices.phase[index] = currentPhase;
+    }
+
+    /**
+     * <p>Same as {@link #getSample}, calculated with integers.</p>
+     *
+     * @param voice       Slot of the voice on the {@link VoicePool}.
+     * @param pitchOffset Defines the value which will multiply the frequency, creating a pitch bend. (WIP)
+     * @param modulation  Phase modulation received from other oscillators, in Q20.
+     * @return A single audio frame, in Q20.
+     * @see FixedPoint
+     */
+    int getFixedSample(int voice, double pitchOffset, int modulation) {
+        final CompiledPreset compiledPreset = instrument.voices.preset[voice];
+
+        if (compiledPreset.mute[id]) {
+            return 0;
+        }
+
+        final VoicePool voices = instrument.voices;
+        final int index = voice * VoicePool.OSCILLATORS + id;
+
+        final int sample = fixedWave(
+                index,
+                compiledPreset.waveForm[id],
+                voices.fixedPhase[index] + FixedPoint.modulationToPhase(modulation),
+                FixedPoint.OUTPUT_LEVELS[voices.outputLevel[index]] + FixedPoint.attenuation(envelopeGenerator.nextLevel(voice)));
+
+        voices.fixedPhase[index] += FixedPoint.phaseIncrement(pitchOffset * voices.phaseIncrement[index]);
+
+        return sample;
+    }
+
+    /**
+     * <p>Same as {@link #render}, calculated with integers.</p>
+     *
+     * @param voice       Slot of the voice on the {@link VoicePool}.
+     * @param pitchOffset Defines the value which will multiply the frequency, creating a pitch bend. (WIP)
+     * @param modulation  Phase modulation received from other oscillators, one Q20 value per frame.
+     * @param envelope    Scratch space for the envelope, one value per frame.
+     * @param output      Receives one Q20 sample per frame.
+     * @param frames      How many frames are going to be produced.
+     * @see FixedPoint
+     */
+    void renderFixed(int voice, double pitchOffset, int[] modulation, int[] envelope, int[] output, int frames) {
+        final CompiledPreset compiledPreset = instrument.voices.preset[voice];
+
+        if (compiledPreset.mute[id]) {
+            Arrays.fill(output, 0, frames, 0);
+            return;
         }
 
-        previousTime = time;
+        final VoicePool voices = instrument.voices;
+        final int index = voice * VoicePool.OSCILLATORS + id;
 
-        return produceSample(keyId, pitchOffset * sineFrequency[keyId], modulation, time);
+        final WaveForm waveForm = compiledPreset.waveForm[id];
+        final int outputLevel = FixedPoint.OUTPUT_LEVELS[voices.outputLevel[index]];
+        final int increment = FixedPoint.phaseIncrement(pitchOffset * voices.phaseIncrement[index]);
+        int currentPhase = voices.fixedPhase[index];
+
+        envelopeGenerator.render(voice, envelope, frames);
+
+        for (int i = 0; i < frames; i++) {
+            output[i] = fixedWave(
+                    index,
+                    waveForm,
+                    currentPhase + FixedPoint.modulationToPhase(modulation[i]),
+                    outputLevel + FixedPoint.attenuation(envelope[i]));
+
+            // wraps around at the end of the cycle
+            currentPhase += increment;
+        }
+
+        voices.fixedPhase[index] = currentPhase;
     }
 
-    private double produceSample(int keyId, double frequency, double modulation, long time) {
-        return Tables.OSCILLATOR_OUTPUT_LEVELS[correctedOutputLevel]
-                * envelopeGenerator.getEnvelopeAmplitude(keyId)
-                * Dsp.oscillator(oscillatorPreset().getWaveForm(), frequency, modulation, 0, time);
+    private int fixedWave(int index, WaveForm waveForm, int phase, int attenuation) {
+        switch (waveForm) {
+            case SINE:
+                return FixedPoint.sine(phase, attenuation);
+
+            case SQUARE:
+                return FixedPoint.square(phase, FixedPoint.gain(attenuation));
+
+            case TRIANGLE:
+                return FixedPoint.triangle(phase, FixedPoint.gain(attenuation));
+
+            case SAWTOOTH_UP:
+                return FixedPoint.sawtooth(phase, FixedPoint.gain(attenuation));
+
+            case SAWTOOTH_DOWN:
+                return -FixedPoint.sawtooth(phase, FixedPoint.gain(attenuation));
+
+            case WHITE_NOISE:
+                // xorshift, same sequence on every run
+                instrument.voices.noise[index] ^= instrument.voices.noise[index] << 13;
+                instrument.voices.noise[index] ^= instrument.voices.noise[index] >>> 17;
+                instrument.voices.noise[index] ^= instrument.voices.noise[index] << 5;
+
+                return FixedPoint.sawtooth(instrument.voices.noise[index], FixedPoint.gain(attenuation));
+
+            default:
+                return 0;
+        }
     }
 
     /**
      * <p>Puts the oscillator in the <code>attack</code> stage, the envelope keeps progressing to <code>sustain</code> until the {@link Oscillator#stop(int) stop} method is called.</p>
-     * <p>The fixed frequency calculation was taken from <a href="https://github.com/smbolton/hexter">hexter</a>.</p>
      *
-     * @param keyId     ID representing an unique key, in the range of 0 to 131.
-     * @param frequency Indicates the frequency at which this oscillator is going to operate.
-     * @see <a href="https://github.com/smbolton/hexter/blob/737dbb04c407184fae0e203c1d73be8ad3fd55ba/src/dx7_voice.c#L782">dx7_voice.c">dx7_voice.c</a>
+     * @param voice    Slot of the voice on the {@link VoicePool}.
+     * @param keyId    ID representing an unique key, in the range of 0 to 131.
+     * @param sounding Tells if the key is still producing sound, in which case the phase continues from where it is.
      */
-    void start(int keyId, double frequency) {
-        if (!oscillatorPreset().isMute()) {
-            sineFrequency[keyId] = ((oscillatorPreset().isFixedFrequency()
-                    ? Math.exp(MathFunctions.NATURAL_LOG10 * (((int) oscillatorPreset().getFrequencyRatio() & 3) + oscillatorPreset().getFrequencyFine() / 100.0))
-                    : frequency * ((oscillatorPreset().getFrequencyRatio() == 0) ? 0.5 : oscillatorPreset().getFrequencyRatio()) * Tables.FREQUENCY_FINE[oscillatorPreset().getFrequencyFine()])
-                    + Tables.FREQUENCY_DETUNE[oscillatorPreset().getFrequencyDetune() + 7])
-                    / sampleRate;
+    void start(int voice, int keyId, boolean sounding) {
+        final CompiledPreset compiledPreset = instrument.voices.preset[voice];
+        final VoicePool voices = instrument.voices;
+        final int index = voice * VoicePool.OSCILLATORS + id;
 
-            correctedOutputLevel = Math.max(0, Math.min(oscillatorPreset().getOutputLevel() + breakpoint.getLevelOffset(keyId), 99));
+        if (!sounding) {
+            voices.phase[index] = 0;
+            voices.fixedPhase[index] = 0;
+            voices.noise[index] = 0x2545F491;
+        }
 
-            envelopeGenerator.initialize(keyId);
+        if (!compiledPreset.mute[id]) {
+            voices.phaseIncrement[index] = compiledPreset.phaseIncrement[id][keyId];
+            voices.outputLevel[index] = compiledPreset.outputLevel[id][keyId];
+
+            envelopeGenerator.initialize(voice);
         }
     }
 
     /**
      * <p>Puts the oscillator in the <code>release</code> stage.</p>
      *
-     * @param keyId ID representing an unique key, in the range of 0 to 131.
+     * @param voice Slot of the voice on the {@link VoicePool}.
      */
-    void stop(int keyId) {
-        if (oscillatorPreset().isMute()) {
-            envelopeGenerator.reset(keyId);
+    void stop(int voice) {
+        if (instrument.voices.preset[voice].mute[id]) {
+            envelopeGenerator.reset(voice);
         } else {
-            envelopeGenerator.stop(keyId);
+            envelopeGenerator.stop(voice);
         }
     }
 
     /**
      * <p>Puts the oscillator in the <code>idle</code> position.</p>
      *
-     * @param keyId ID representing an unique key, in the range of 0 to 131.
+     * @param voice Slot of the voice on the {@link VoicePool}.
      */
-    void silence(int keyId) {
-        if (oscillatorPreset().isMute()) {
-            envelopeGenerator.reset(keyId);
+    void silence(int voice) {
+        if (instrument.voices.preset[voice].mute[id]) {
+            envelopeGenerator.reset(voice);
         } else {
-            envelopeGenerator.silence(keyId);
+            envelopeGenerator.silence(voice);
         }
     }
 
+    /**
+     * <p>Takes the oscillator to the <code>idle</code> position in a few milliseconds.</p>
+     *
+     * @param voice Slot of the voice on the {@link VoicePool}.
+     */
+    void fade(int voice) {
+        if (instrument.voices.preset[voice].mute[id]) {
+            envelopeGenerator.reset(voice);
+        } else {
+            envelopeGenerator.fade(voice);
+        }
+    }
+
+    /**
+     * @param voice Slot of the voice on the {@link VoicePool}.
+     * @return The current value of the envelope of the oscillator.
+     */
+    double getAmplitude(int voice) {
+        return envelopeGenerator.getAmplitude(voice);
+    }
+
     /**
      * <p>Tells if the oscillator is in the <code>idle</code> stage.</p>
      *
-     * @param keyId ID representing an unique key, in the range of 0 to 131.
+     * @param voice Slot of the voice on the {@link VoicePool}.
      * @return True if the oscillator is currently idle.
-     * @see Algorithm#getSample
-     * @see Algorithm#hasActiveCarriers
+     * @see Algorithm#render
      */
-    boolean isActive(int keyId) {
-        return envelopeGenerator.getEnvelopeState(keyId) != EnvelopeState.IDLE;
+    boolean isActive(int voice) {
+        return envelopeGenerator.getEnvelopeState(voice) != EnvelopeState.IDLE;
     }
 
     /**
@@ -136,7 +318,7 @@ public class Oscillator {
      */
     public double getEffectiveFrequency() {
         return (oscillatorPreset().isFixedFrequency()
-                ? Math.exp(MathFunctions.NATURAL_LOG10 * (((int) oscillatorPreset().getFrequencyRatio() & 3) + oscillatorPreset().getFrequencyFine() / 100.0))
+                ? StrictMath.exp(MathFunctions.NATURAL_LOG10 * (((int) oscillatorPreset().getFrequencyRatio() & 3) + oscillatorPreset().getFrequencyFine() / 100.0))
                 : ((oscillatorPreset().getFrequencyRatio() == 0) ? 0.5 : oscillatorPreset().getFrequencyRatio()) * Tables.FREQUENCY_FINE[oscillatorPreset().getFrequencyFine()]);
     }
 
@@ -0,0 +1,75 @@
+package com.jbatista.wmo.synthesis;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Compiles the edits made to the presets of the instruments on its own thread, so the rendering thread never builds a {@link CompiledPreset}.</p>
+ * <p>The rendering thread only asks for a compilation, and picks up the result through the reference of the instrument, at the start of a later block.
+ * Instruments waiting for a compilation are linked to each other, so asking allocates nothing.</p>
+ *
+ * @see Instrument#setPreset(com.jbatista.wmo.preset.InstrumentPreset)
+ */
+final class PresetCompiler {
+
+    // last instrument that asked, each one points to the one that asked before it
+    private static final AtomicReference<Instrument> PENDING = new AtomicReference<>();
+    private static final Thread THREAD = new Thread(PresetCompiler::work, "wmo-preset-compiler");
+
+    static {
+        THREAD.setDaemon(true);
+        THREAD.start();
+    }
+
+    private PresetCompiler() {
+    }
+
+    // makes sure the thread is running, called when an instrument is created, outside of the rendering thread
+    static void start() {
+    }
+
+    // an instrument that already asked is not added again until its compilation is done
+    static void request(Instrument instrument) {
+        if (!instrument.compilationRequested.compareAndSet(false, true)) {
+            return;
+        }
+
+        Instrument head;
+        do {
+            head = PENDING.get();
+            instrument.nextCompilation = head;
+        } while (!PENDING.compareAndSet(head, instrument));
+
+        LockSupport.unpark(THREAD);
+    }
+
+    private static void work() {
+        Instrument instrument;
+        Instrument next;
+
+        while (true) {
+            instrument = PENDING.getAndSet(null);
+
+            if (instrument == null) {
+                LockSupport.park(PresetCompiler.class);
+                continue;
+            }
+
+            while (instrument != null) {
+                next = instrument.nextCompilation;
+                instrument.nextCompilation = null;
+
+                try {
+                    instrument.compilePresetEdits();
+                } catch (RuntimeException exception) {
+                    // reported without stopping the thread, the other instruments still need it
+                    THREAD.getUncaughtExceptionHandler().uncaughtException(THREAD, exception);
+                }
+
+                instrument.compilationRequested.set(false);
+                instrument = next;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,32 @@
+package com.jbatista.wmo.synthesis;
+
+/**
+ * <p>Intermediate buffers used while rendering keys, every thread rendering keys of the same {@link Instrument} needs its own instance.</p>
+ *
+ * @see Algorithm#render(int, RenderBuffers, double[], int, int)
+ */
+final class RenderBuffers {
+
+    // output of each oscillator and the modulation it receives, for one block of an algorithm
+    final double[][] output = new double[6][Algorithm.BLOCK_SIZE];
+    final double[] modulation = new double[Algorithm.BLOCK_SIZE];
+    final double[] envelope = new double[Algorithm.BLOCK_SIZE];
+
+    // same as above, for the fixed point engine
+    final int[][] fixedOutput = new int[6][Algorithm.BLOCK_SIZE];
+    final int[] fixedModulation = new int[Algorithm.BLOCK_SIZE];
+    final int[] fixedEnvelope = new int[Algorithm.BLOCK_SIZE];
+
+    // keys rendered by this instance, added together
+    private double[] partial = new double[0];
+
+    // grows only when a bigger block is requested
+    double[] partial(int frames) {
+        if (partial.length < frames) {
+            partial = new double[frames];
+        }
+
+        return partial;
+    }
+
+}
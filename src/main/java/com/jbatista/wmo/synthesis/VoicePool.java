@@ -0,0 +1,111 @@
+package com.jbatista.wmo.synthesis;
+
+import java.util.Arrays;
+
+/**
+ * <p>State of every voice of an {@link Instrument}, a voice being a sounding key.</p>
+ * <p>Kept as a struct of arrays sized to the maximum polyphony, instead of one array per key on every {@link Oscillator} and {@link EnvelopeGenerator},
+ * so the state of a voice being rendered sits close together in memory. Values of the oscillators of a voice are contiguous, at <code>voice * 6 + oscillator</code>.</p>
+ * <p>Every voice keeps the {@link CompiledPreset} it was started with, so a preset can be replaced while voices are sounding.</p>
+ * <p>The first {@link #polyphony} voices are played by keys, the ones after them hold voices that were stolen while they fade out,
+ * at least {@link #FADE_VOICES}, more when a pool replacing another one has to fade every voice that was sounding on it.</p>
+ *
+ * @see Instrument#setMaxPolyphony(int)
+ */
+final class VoicePool {
+
+    static final int OSCILLATORS = 6;
+    static final int FADE_VOICES = 4;
+
+    final int polyphony;
+    final int size;
+
+    // per voice
+    final int[] key;
+    final CompiledPreset[] preset;
+    final long[] startOrder;
+    final boolean[] released;
+    final double[] feedback;
+    final int[] fixedFeedback;
+
+    // per oscillator of a voice, phase in cycles
+    final double[] phase;
+    final double[] phaseIncrement;
+    final int[] outputLevel;
+    final int[] fixedPhase;
+    final int[] noise;
+
+    // per envelope of a voice, see EnvelopeGenerator
+    final EnvelopeState[] envelopeState;
+    final int[] position;
+    final int[] stageSize;
+    final double[] amplitude;
+    final double[] amplitudeIncrement;
+    final long[] level;
+    final long[] levelIncrement;
+
+    VoicePool(int polyphony) {
+        this(polyphony, FADE_VOICES);
+    }
+
+    VoicePool(int polyphony, int fadeVoices) {
+        this.polyphony = polyphony;
+        this.size = polyphony + Math.max(FADE_VOICES, fadeVoices);
+
+        key = new int[size];
+        preset = new CompiledPreset[size];
+        startOrder = new long[size];
+        released = new boolean[size];
+        feedback = new double[size];
+        fixedFeedback = new int[size];
+
+        phase = new double[size * OSCILLATORS];
+        phaseIncrement = new double[size * OSCILLATORS];
+        outputLevel = new int[size * OSCILLATORS];
+        fixedPhase = new int[size * OSCILLATORS];
+        noise = new int[size * OSCILLATORS];
+
+        envelopeState = new EnvelopeState[size * OSCILLATORS];
+        position = new int[size * OSCILLATORS];
+        stageSize = new int[size * OSCILLATORS];
+        amplitude = new double[size * OSCILLATORS];
+        amplitudeIncrement = new double[size * OSCILLATORS];
+        level = new long[size * OSCILLATORS];
+        levelIncrement = new long[size * OSCILLATORS];
+
+        Arrays.fill(key, -1);
+        Arrays.fill(envelopeState, EnvelopeState.IDLE);
+    }
+
+    // copies everything but the key mapping
+    void copy(int from, int to) {
+        copy(from, this, to);
+    }
+
+    // same as copy(int, int), to a voice of another pool
+    void copy(int from, VoicePool pool, int to) {
+        pool.preset[to] = preset[from];
+        pool.startOrder[to] = startOrder[from];
+        pool.released[to] = released[from];
+        pool.feedback[to] = feedback[from];
+        pool.fixedFeedback[to] = fixedFeedback[from];
+
+        final int source = from * OSCILLATORS;
+        final int target = to * OSCILLATORS;
+
+        System.arraycopy(phase, source, pool.phase, target, OSCILLATORS);
+        System.arraycopy(phaseIncrement, source, pool.phaseIncrement, target, OSCILLATORS);
+        System.arraycopy(outputLevel, source, pool.outputLevel, target, OSCILLATORS);
+        System.arraycopy(fixedPhase, source, pool.fixedPhase, target, OSCILLATORS);
+        System.arraycopy(noise, source, pool.noise, target, OSCILLATORS);
+
+        System.arraycopy(envelopeState, source, pool.envelopeState, target, OSCILLATORS);
+        System.arraycopy(position, source, pool.position, target, OSCILLATORS);
+        System.arraycopy(stageSize, source, pool.stageSize, target, OSCILLATORS);
+        System.arraycopy(amplitude, source, pool.amplitude, target, OSCILLATORS);
+        System.arraycopy(amplitudeIncrement, source, pool.amplitudeIncrement, target, OSCILLATORS);
+        System.arraycopy(level, source, pool.level, target, OSCILLATORS);
+        System.arraycopy(levelIncrement, source, pool.levelIncrement, target, OSCILLATORS);
+    }
+
+}
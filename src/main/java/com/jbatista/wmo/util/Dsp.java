@@ -27,6 +27,82 @@ public class Dsp {
         }
     }
 
+    /**
+     * <p>Produces a wave from a phase accumulator, the cost does not depend on how long the wave has been running.</p>
+     *
+     * @param waveForm   The shape of the wave.
+     * @param phase      Position in the cycle, from 0 (inclusive) to 1 (exclusive).
+     * @param modulation Phase offset in radians, as produced by a modulating oscillator.
+     * @return A value from -1 to 1.
+     */
+    public static double oscillator(WaveForm waveForm, double phase, double modulation) {
+        return oscillator(waveForm, null, phase, modulation);
+    }
+
+    /**
+     * <p>Produces a wave from a phase accumulator, using a table to calculate sine waves.</p>
+     *
+     * @param waveForm   The shape of the wave.
+     * @param sineTable  Table used by {@link WaveForm#SINE}, when <code>null</code> {@link Math#sin(double)} is used.
+     * @param phase      Position in the cycle, from 0 (inclusive) to 1 (exclusive).
+     * @param modulation Phase offset in radians, as produced by a modulating oscillator.
+     * @return A value from -1 to 1.
+     * @see com.jbatista.wmo.EngineQuality
+     */
+    public static double oscillator(WaveForm waveForm, SineTable sineTable, double phase, double modulation) {
+        phase += modulation * MathFunctions.FRAC_1_DIV_TAU;
+        phase -= Math.floor(phase);
+
+        switch (waveForm) {
+            case SINE:
+                return (sineTable == null) ? sine(phase) : sineTable.sin(phase);
+            case SQUARE:
+                return (phase < 0.5) ? 1 : -1;
+            case TRIANGLE:
+                return triangle(phase);
+            case SAWTOOTH_UP:
+                return sawtooth(phase);
+            case SAWTOOTH_DOWN:
+                return -sawtooth(phase);
+            case WHITE_NOISE:
+                return whiteNoise();
+            default:
+                // wave form not implemented
+                return 0;
+        }
+    }
+
+    /**
+     * <p>Same as {@link #oscillator(WaveForm, SineTable, double, double)}, with reduced aliasing on {@link WaveForm#SQUARE}, {@link WaveForm#TRIANGLE}, {@link WaveForm#SAWTOOTH_UP}, and {@link WaveForm#SAWTOOTH_DOWN}.</p>
+     * <p>Uses PolyBLEP on the jumps of square and sawtooth waves, and PolyBLAMP on the corners of triangle waves, smoothing them over one sample on each side.</p>
+     *
+     * @param waveForm   The shape of the wave.
+     * @param sineTable  Table used by {@link WaveForm#SINE}, when <code>null</code> {@link Math#sin(double)} is used.
+     * @param phase      Position in the cycle, from 0 (inclusive) to 1 (exclusive).
+     * @param increment  How much the phase advances per sample, frequency divided by the sample rate.
+     * @param modulation Phase offset in radians, as produced by a modulating oscillator.
+     * @return A value from -1 to 1.
+     * @see <a href="https://www.martin-finke.de/articles/audio-plugins-018-polyblep-oscillator/">PolyBLEP oscillator article</a>
+     */
+    public static double bandLimitedOscillator(WaveForm waveForm, SineTable sineTable, double phase, double increment, double modulation) {
+        phase += modulation * MathFunctions.FRAC_1_DIV_TAU;
+        phase -= Math.floor(phase);
+        increment = Math.min(increment, 0.5);
+
+        switch (waveForm) {
+            case SQUARE:
+                return ((phase < 0.5) ? 1 : -1) + polyBlep(phase, increment) - polyBlep(wrap(phase + 0.5), increment);
+            case TRIANGLE:
+                return triangle(phase) - 8 * polyBlamp(wrap(phase + 0.75), increment) + 8 * polyBlamp(wrap(phase + 0.25), increment);
+            case SAWTOOTH_UP:
+                return sawtooth(phase) - polyBlep(wrap(phase + 0.5), increment);
+            case SAWTOOTH_DOWN:
+                return polyBlep(wrap(phase + 0.5), increment) - sawtooth(phase);
+            default:
+                return oscillator(waveForm, sineTable, phase, 0);
+        }
+    }
+
     /**
      * <p>Distorts the wave angle according to a factor.</p>
      * <p>As it moves to negative, the wave turns into a triangle, then distorts completely.</p>
@@ -52,12 +128,71 @@ public class Dsp {
         return Math.signum(sineWave(frequency, modulation, phase, time));
     }
 
+    // same as 2 / PI * asin(sin(x)), without the inverse function
     private static double triangleWave(double frequency, double modulation, double phase, long time) {
-        return MathFunctions.FRAC_2_DIV_PI * Math.asin(sineWave(frequency, modulation, phase, time));
+        return triangle(wrap((MathFunctions.TAU * frequency * time + modulation + phase) * MathFunctions.FRAC_1_DIV_TAU));
     }
 
+    // same as 2 / PI * atan(tan(x)), without the inverse function
     private static double sawtoothWave(boolean up, double frequency, double modulation, double phase, long time) {
-        return (up ? 1 : -1) * MathFunctions.FRAC_2_DIV_PI * Math.atan(Math.tan(Math.PI * time * frequency + modulation + phase));
+        return (up ? 1 : -1) * sawtooth(wrap((Math.PI * time * frequency + modulation + phase) / Math.PI));
+    }
+
+    // difference between a band limited and a naive jump from -1 to 1, the jump is at phase 0
+    private static double polyBlep(double phase, double increment) {
+        final double x;
+
+        if (phase < increment) {
+            x = phase / increment;
+            return 2 * x - x * x - 1;
+        }
+
+        if (phase > 1 - increment) {
+            x = (phase - 1) / increment;
+            return x * x + 2 * x + 1;
+        }
+
+        return 0;
+    }
+
+    // integral of the PolyBLEP, difference on a corner where the slope increases by 1 per cycle, the corner is at phase 0
+    private static double polyBlamp(double phase, double increment) {
+        final double x;
+
+        if (phase < increment) {
+            x = 1 - phase / increment;
+            return increment * x * x * x / 6;
+        }
+
+        if (phase > 1 - increment) {
+            x = (phase - 1) / increment + 1;
+            return increment * x * x * x / 6;
+        }
+
+        return 0;
+    }
+
+    private static double wrap(double phase) {
+        return phase - Math.floor(phase);
+    }
+
+    // phase from 0 to 1, the argument never grows
+    private static double sine(double phase) {
+        return Math.sin(MathFunctions.TAU * phase);
+    }
+
+    // same shape as asin(sin(x)), starts at 0 going up
+    private static double triangle(double phase) {
+        if (phase < 0.25) {
+            return 4 * phase;
+        }
+
+        return (phase < 0.75) ? 2 - 4 * phase : 4 * phase - 4;
+    }
+
+    // same shape as atan(tan(x / 2)), starts at 0 going up
+    private static double sawtooth(double phase) {
+        return (phase < 0.5) ? 2 * phase : 2 * phase - 2;
     }
 
     private static double whiteNoise() {
@@ -0,0 +1,139 @@
+package com.jbatista.wmo.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Bounded queue that passes events from one thread to another, without locks and without allocating.</p>
+ * <p>Each event is a <code>long</code> and a time, whose meanings are defined by who uses the queue, with an optional object attached to it.</p>
+ * <p>Only one thread can call {@link #offer(long, long, Object)}, and only one thread can call {@link #drain(Handler)}, they can be different threads.</p>
+ *
+ * @see com.jbatista.wmo.synthesis.Instrument#queuePressKey(int)
+ */
+public final class EventQueue {
+
+    /**
+     * Receives the events taken from the queue.
+     */
+    @FunctionalInterface
+    public interface Handler {
+        void handle(long time, long event, Object attachment);
+    }
+
+    private final long[] times;
+    private final long[] events;
+    private final Object[] attachments;
+    private final int mask;
+
+    // positions only grow, the slot is the position masked by the capacity
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    // last head seen by the producer, avoids reading the consumer position on every offer
+    private long knownHead;
+
+    /**
+     * @param capacity How many events the queue holds, rounded up to a power of two.
+     */
+    public EventQueue(int capacity) {
+        if ((capacity < 1) || (capacity > (1 << 30))) {
+            throw new IllegalArgumentException("Capacity must be from 1 to 2^30, found " + capacity);
+        }
+
+        final int size = Integer.highestOneBit(capacity) << ((Integer.bitCount(capacity) == 1) ? 0 : 1);
+
+        times = new long[size];
+        events = new long[size];
+        attachments = new Object[size];
+        mask = size - 1;
+    }
+
+    public int getCapacity() {
+        return events.length;
+    }
+
+    /**
+     * @return How many events are waiting, may be outdated as soon as it returns.
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * <p>Adds an event to the end of the queue, called by the producer thread.</p>
+     *
+     * @param time       When the event happens.
+     * @param event      The event.
+     * @param attachment An object passed along with the event, can be null.
+     * @return False if the queue is full, in which case the event is not added.
+     */
+    public boolean offer(long time, long event, Object attachment) {
+        final long position = tail.get();
+
+        if ((position - knownHead) >= events.length) {
+            knownHead = head.get();
+
+            if ((position - knownHead) >= events.length) {
+                return false;
+            }
+        }
+
+        final int slot = (int) position & mask;
+        times[slot] = time;
+        events[slot] = event;
+        attachments[slot] = attachment;
+
+        // publishes the slot to the consumer
+        tail.lazySet(position + 1);
+
+        return true;
+    }
+
+    /**
+     * <p>Passes every waiting event to the handler, in the order they were added, called by the consumer thread.</p>
+     * <p>Events added while draining are left for the next call.</p>
+     *
+     * @param handler Receives the events.
+     * @return How many events were handled.
+     */
+    public int drain(Handler handler) {
+        return drain(handler, Integer.MAX_VALUE);
+    }
+
+    /**
+     * <p>Same as {@link #drain(Handler)}, handling at most the given number of events, the rest is left on the queue.</p>
+     *
+     * @param handler Receives the events.
+     * @param limit   Maximum number of events handled.
+     * @return How many events were handled.
+     */
+    public int drain(Handler handler, int limit) {
+        long position = head.get();
+        final long end = Math.min(tail.get(), position + Math.max(0, limit));
+
+        if (position == end) {
+            return 0;
+        }
+
+        final int count = (int) (end - position);
+        int slot;
+        long time;
+        long event;
+        Object attachment;
+
+        while (position < end) {
+            slot = (int) position & mask;
+            time = times[slot];
+            event = events[slot];
+            attachment = attachments[slot];
+            attachments[slot] = null;
+
+            // the slot can be reused by the producer from here on
+            head.lazySet(++position);
+
+            handler.handle(time, event, attachment);
+        }
+
+        return count;
+    }
+
+}
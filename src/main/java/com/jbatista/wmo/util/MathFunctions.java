@@ -9,10 +9,11 @@ import java.util.Random;
  */
 public class MathFunctions {
 
-    public static final double TAU = 6.2831;
-    public static final double FRAC_PI_DIV_2 = 1.5707;
-    public static final double FRAC_2_DIV_PI = 0.6366;
-    public static final double NATURAL_LOG10 = 2.3025;
+    public static final double TAU = 2 * Math.PI;
+    public static final double FRAC_PI_DIV_2 = Math.PI / 2;
+    public static final double FRAC_2_DIV_PI = 2 / Math.PI;
+    public static final double FRAC_1_DIV_TAU = 1 / TAU;
+    public static final double NATURAL_LOG10 = StrictMath.log(10);
     public static final int SIGNED_16_BIT_MAX = 32767;
     public static final int SIGNED_24_BIT_MAX = 8388607;
     public static final Random RANDOM = new Random();
@@ -1,22 +1,57 @@
 package com.jbatista.wmo.util;
 
+import com.jbatista.wmo.Clipping;
 import com.jbatista.wmo.synthesis.FilterChain;
 import com.jbatista.wmo.synthesis.Instrument;
 
+import javax.sound.sampled.AudioFormat;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
 /**
  * <p>Aggregates the output of a series of instruments together, producing a single PCM frame.</p>
- * <p>Audio is obtained the same way of an instrument.</p>
+ * <p>Audio is obtained the same way of an instrument, blocks of frames can be rendered in parallel by a {@link WorkerPool}.</p>
+ * <p>The output can be mono, where every instrument is added as is, or stereo, where each instrument is placed between the channels by its {@link Instrument#setPan(double) pan},
+ * and the {@link FilterChain} is applied to each channel separately.</p>
  *
  * @see Instrument
+ * @see #render(double[], int, int)
+ * @see #renderInterleaved(double[], int, int)
  */
 public class Mixer {
 
+    // gains of the constant power curve at the center, dividing by them makes the center exactly 1
+    private static final double CENTER_LEFT = Math.cos(Math.PI / 4);
+    private static final double CENTER_RIGHT = Math.sin(Math.PI / 4);
+
     private final Instrument[] instruments;
     private final FilterChain filterChain = new FilterChain();
 
     private int index;
     private double masterGain = 1;
+    private double width = 1;
     private double frameSample;
+    private double frameLeft;
+    private double frameRight;
+
+    // constant power gains of each instrument, 1 on both channels at the center, calculated when its pan changes
+    private final double[] pans;
+    private final double[] leftGains;
+    private final double[] rightGains;
+
+    // one buffer per instrument, so they can be rendered at the same time
+    private final double[][] instrumentBuffers;
+    private final IntConsumer renderInstrument = this::renderInstrument;
+    private WorkerPool workerPool;
+    private int blockFrames;
+
+    private double[] blockBuffer = new double[0];
+    private double[] leftBuffer = new double[0];
+    private double[] rightBuffer = new double[0];
+    private final PcmConverter pcmConverter = new PcmConverter();
 
     private final byte[] buffer16bit = new byte[]{0, 0, 0, 0};
     private final short[] shortBuffer = new short[]{0, 0};
@@ -24,6 +59,12 @@ public class Mixer {
 
     public Mixer(Instrument... instruments) {
         this.instruments = instruments;
+        this.instrumentBuffers = new double[instruments.length][0];
+        this.pans = new double[instruments.length];
+        this.leftGains = new double[instruments.length];
+        this.rightGains = new double[instruments.length];
+
+        Arrays.fill(pans, Double.NaN);
     }
 
     public double getMasterGain() {
@@ -34,6 +75,35 @@ public class Mixer {
         return filterChain;
     }
 
+    public WorkerPool getWorkerPool() {
+        return workerPool;
+    }
+
+    /**
+     * <p>Defines the threads used by {@link #render(double[], int, int)}, each instrument is rendered by a single thread.</p>
+     * <p>Defaults to <b>null</b>, every instrument is rendered on the calling thread.</p>
+     *
+     * @param workerPool A pool, can be shared with other mixers.
+     */
+    public void setWorkerPool(WorkerPool workerPool) {
+        this.workerPool = workerPool;
+    }
+
+    public Clipping getClipping() {
+        return pcmConverter.getClipping();
+    }
+
+    /**
+     * <p>Defines how samples out of range are handled by the methods producing PCM buffers.</p>
+     * <p>Defaults to <b>{@link Clipping#HARD}</b>.</p>
+     *
+     * @param clipping The clipping.
+     * @see #render(ByteBuffer, AudioFormat)
+     */
+    public void setClipping(Clipping clipping) {
+        pcmConverter.setClipping(clipping);
+    }
+
     /**
      * <p>Defines how loud the final output will be.</p>
      * <p>Defaults to <b>1</b></p>
@@ -44,6 +114,33 @@ public class Mixer {
         this.masterGain = Math.max(0, Math.min(masterGain, 2));
     }
 
+    public double getWidth() {
+        return width;
+    }
+
+    /**
+     * <p>Defines how far apart the channels of the stereo output are, by scaling the difference between them.</p>
+     * <p>Defaults to <b>1</b>, 0 makes both channels the same.</p>
+     *
+     * @param width A value from 0 to 2.
+     */
+    public void setWidth(double width) {
+        this.width = Math.max(0, Math.min(width, 2));
+    }
+
+    /**
+     * <p>Defines the position of a specific instrument between the left and right channels of the stereo output, the mono output is not affected.</p>
+     * <p>The channels are weighted by a constant power curve, scaled so that at the center each one receives the instrument at its full level, the same as the mono output,
+     * an instrument moved to one side is 3dB louder on that side.</p>
+     *
+     * @param position The position of an added instrument.
+     * @param pan      A value from -1, left, to 1, right.
+     * @see Instrument#setPan(double)
+     */
+    public void setPan(int position, double pan) {
+        instruments[position].setPan(pan);
+    }
+
     /**
      * <p>Defines how loud a specific instrument will be.</p>
      *
@@ -70,46 +167,260 @@ public class Mixer {
         return frameSample;
     }
 
+    /**
+     * <p>Fills a buffer with mono PCM samples, producing the same output as calling {@link #getSample} once for every frame.</p>
+     * <p>Each instrument renders the block into its own buffer, in parallel if a {@link #setWorkerPool(WorkerPool) worker pool} is defined,
+     * then the buffers are added in the order the instruments were given, so the result does not depend on the number of threads.</p>
+     *
+     * @param buffer The buffer that will receive the samples, its previous content is overwritten.
+     * @param offset Position of the buffer where the first frame is written.
+     * @param frames How many frames are going to be produced.
+     * @see Instrument#render(double[], int, int)
+     */
+    public void render(double[] buffer, int offset, int frames) {
+        renderInstruments(frames);
+
+        for (int i = 0; i < frames; i++) {
+            frameSample = 0;
+
+            for (index = 0; index < instruments.length; index++) {
+                frameSample += instrumentBuffers[index][i];
+            }
+
+            buffer[offset + i] = frameSample;
+        }
+
+        filterChain.process(buffer, offset, frames);
+
+        for (int i = offset; i < offset + frames; i++) {
+            buffer[i] *= masterGain;
+        }
+    }
+
+    /**
+     * <p>Fills a buffer with stereo PCM frames, interleaved: <code>[L][R][L][R]...</code>.</p>
+     * <p>Instruments are rendered the same way of {@link #render(double[], int, int)}, then placed by their pan, filtered, and adjusted by the {@link #setWidth(double) width}.</p>
+     *
+     * @param buffer The buffer that will receive the samples, must have room for <code>frames * 2</code> values, its previous content is overwritten.
+     * @param offset Position of the buffer where the first value is written.
+     * @param frames How many frames are going to be produced.
+     */
+    public void renderInterleaved(double[] buffer, int offset, int frames) {
+        renderInstruments(frames);
+        updatePans();
+
+        if (leftBuffer.length < frames) {
+            leftBuffer = new double[frames];
+            rightBuffer = new double[frames];
+        }
+
+        double sample;
+        for (int i = 0; i < frames; i++) {
+            frameLeft = 0;
+            frameRight = 0;
+
+            for (index = 0; index < instruments.length; index++) {
+                sample = instrumentBuffers[index][i];
+                frameLeft += leftGains[index] * sample;
+                frameRight += rightGains[index] * sample;
+            }
+
+            leftBuffer[i] = frameLeft;
+            rightBuffer[i] = frameRight;
+        }
+
+        filterChain.process(leftBuffer, 0, frames, 0);
+        filterChain.process(rightBuffer, 0, frames, 1);
+
+        for (int i = 0; i < frames; i++) {
+            frameLeft = leftBuffer[i];
+            frameRight = rightBuffer[i];
+
+            widthAndGain();
+            buffer[offset + 2 * i] = frameLeft;
+            buffer[offset + 2 * i + 1] = frameRight;
+        }
+    }
+
+    /**
+     * <p>Fills the remaining space of a buffer with PCM frames.</p>
+     * <p>A format with two channels receives the {@link #renderInterleaved(double[], int, int) stereo} output,
+     * otherwise the {@link #render(double[], int, int) mono} output is repeated on every channel of the format.</p>
+     * <p>The whole block is converted at once, suited for {@link javax.sound.sampled.SourceDataLine#write(byte[], int, int)} with a wrapped array,
+     * or for a direct buffer handed to native audio code.</p>
+     *
+     * @param buffer The buffer that will receive the frames, starting at its position, which is advanced.
+     * @param format The format of the frames, signed 16, 24 or 32 bit samples, or 32 bit float samples, in any endianness.
+     * @return How many frames were produced.
+     * @see Instrument#render(ByteBuffer, AudioFormat)
+     */
+    public int render(ByteBuffer buffer, AudioFormat format) {
+        final int frames = pcmConverter.frames(buffer, format);
+        final int sourceChannels = renderBlock(frames, format.getChannels());
+
+        pcmConverter.write(blockBuffer, 0, frames, sourceChannels, buffer, format);
+
+        return frames;
+    }
+
+    /**
+     * <p>Fills the remaining space of a buffer with 16 bit PCM frames, stereo if there are two channels, mono repeated on every channel otherwise.</p>
+     *
+     * @param buffer   The buffer that will receive the frames, starting at its position, which is advanced.
+     * @param channels How many channels each frame has.
+     * @return How many frames were produced.
+     * @see #render(ByteBuffer, AudioFormat)
+     */
+    public int render(ShortBuffer buffer, int channels) {
+        final int frames = buffer.remaining() / Math.max(1, channels);
+        final int sourceChannels = renderBlock(frames, channels);
+
+        pcmConverter.write(blockBuffer, 0, frames, sourceChannels, buffer, channels);
+
+        return frames;
+    }
+
+    /**
+     * <p>Fills the remaining space of a buffer with float PCM frames, stereo if there are two channels, mono repeated on every channel otherwise.</p>
+     *
+     * @param buffer   The buffer that will receive the frames, starting at its position, which is advanced.
+     * @param channels How many channels each frame has.
+     * @return How many frames were produced.
+     * @see #render(ByteBuffer, AudioFormat)
+     */
+    public int render(FloatBuffer buffer, int channels) {
+        final int frames = buffer.remaining() / Math.max(1, channels);
+        final int sourceChannels = renderBlock(frames, channels);
+
+        pcmConverter.write(blockBuffer, 0, frames, sourceChannels, buffer, channels);
+
+        return frames;
+    }
+
+    // renders on the block buffer, returns how many channels were rendered
+    private int renderBlock(int frames, int channels) {
+        if (channels == 2) {
+            renderInterleaved(blockBuffer(frames * 2), 0, frames);
+            return 2;
+        }
+
+        render(blockBuffer(frames), 0, frames);
+        return 1;
+    }
+
+    private void renderInstruments(int frames) {
+        blockFrames = frames;
+
+        if (workerPool == null) {
+            for (index = 0; index < instruments.length; index++) {
+                renderInstrument(index);
+            }
+        } else {
+            workerPool.run(instruments.length, renderInstrument);
+        }
+    }
+
+    // the pan can change between blocks, the gains are recalculated only when it does
+    private void updatePans() {
+        double pan;
+
+        for (index = 0; index < instruments.length; index++) {
+            pan = instruments[index].getPan();
+
+            if (pan != pans[index]) {
+                pans[index] = pan;
+                leftGains[index] = Math.cos((pan + 1) * Math.PI / 4) / CENTER_LEFT;
+                rightGains[index] = Math.sin((pan + 1) * Math.PI / 4) / CENTER_RIGHT;
+            }
+        }
+    }
+
+    private void widthAndGain() {
+        if (width != 1) {
+            final double mid = (frameLeft + frameRight) / 2;
+            final double side = width * (frameLeft - frameRight) / 2;
+
+            frameLeft = mid + side;
+            frameRight = mid - side;
+        }
+
+        frameLeft *= masterGain;
+        frameRight *= masterGain;
+    }
+
+    // grows only when a bigger block is requested
+    private double[] blockBuffer(int frames) {
+        if (blockBuffer.length < frames) {
+            blockBuffer = new double[frames];
+        }
+
+        return blockBuffer;
+    }
+
+    private void renderInstrument(int position) {
+        // grows only when a bigger block is requested
+        if (instrumentBuffers[position].length < blockFrames) {
+            instrumentBuffers[position] = new double[blockFrames];
+        }
+
+        instruments[position].render(instrumentBuffers[position], 0, blockFrames);
+    }
+
+    // renders a single stereo frame, the same as renderInterleaved would
+    private void renderStereoFrame() {
+        updatePans();
+
+        double sample;
+        frameLeft = 0;
+        frameRight = 0;
+
+        for (index = 0; index < instruments.length; index++) {
+            sample = instruments[index].getSample();
+            frameLeft += leftGains[index] * sample;
+            frameRight += rightGains[index] * sample;
+        }
+
+        frameLeft = filterChain.getResult(frameLeft, 0);
+        frameRight = filterChain.getResult(frameRight, 1);
+        widthAndGain();
+    }
+
     /**
      * @param bigEndian Defines the endianness of the values.
-     * @return A single audio frame.
+     * @return A single stereo audio frame.
      * @see Instrument#getByteFrame(boolean)
      */
     public byte[] getByteFrame(boolean bigEndian) {
-        getSample();
-        frameSample *= MathFunctions.SIGNED_16_BIT_MAX;
+        renderStereoFrame();
 
-        // TODO channel stuff, [L][R]
-        MathFunctions.primitiveTo16bit(bigEndian, buffer16bit, 0, (int) frameSample);
-        MathFunctions.primitiveTo16bit(bigEndian, buffer16bit, 2, (int) frameSample);
+        MathFunctions.primitiveTo16bit(bigEndian, buffer16bit, 0, (int) (frameLeft * MathFunctions.SIGNED_16_BIT_MAX));
+        MathFunctions.primitiveTo16bit(bigEndian, buffer16bit, 2, (int) (frameRight * MathFunctions.SIGNED_16_BIT_MAX));
 
         return buffer16bit;
     }
 
     /**
-     * @return A single audio frame.
+     * @return A single stereo 16bit audio frame.
      * @see Instrument#getShortFrame()
      */
     public short[] getShortFrame() {
-        getSample();
+        renderStereoFrame();
 
-        // TODO channel stuff, [L][R]
-        shortBuffer[0] = (short) frameSample;
-        shortBuffer[1] = (short) frameSample;
+        shortBuffer[0] = (short) (Math.max(-1, Math.min(frameLeft, 1)) * MathFunctions.SIGNED_16_BIT_MAX);
+        shortBuffer[1] = (short) (Math.max(-1, Math.min(frameRight, 1)) * MathFunctions.SIGNED_16_BIT_MAX);
 
         return shortBuffer;
     }
 
     /**
-     * @return A single audio frame.
+     * @return A single stereo audio frame.
      * @see Instrument#getFloatFrame()
      */
     public float[] getFloatFrame() {
-        getSample();
+        renderStereoFrame();
 
-        // TODO channel stuff, [L][R]
-        floatBuffer[0] = (float) frameSample;
-        floatBuffer[1] = (float) frameSample;
+        floatBuffer[0] = (float) frameLeft;
+        floatBuffer[1] = (float) frameRight;
 
         return floatBuffer;
     }
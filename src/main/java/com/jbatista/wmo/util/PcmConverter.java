@@ -0,0 +1,163 @@
+package com.jbatista.wmo.util;
+
+import com.jbatista.wmo.Clipping;
+
+import javax.sound.sampled.AudioFormat;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * <p>Converts blocks of mono or stereo samples to interleaved PCM, a mono sample is written on every channel of the output.</p>
+ * <p>A block is converted in a single pass into an internal array, which is copied to the buffer with one bulk operation,
+ * the arrays grow to the biggest block converted and are reused, nothing is allocated afterwards.</p>
+ * <p>Not thread safe, each instrument and mixer has its own.</p>
+ *
+ * @see com.jbatista.wmo.synthesis.Instrument#render(ByteBuffer, AudioFormat)
+ * @see Mixer#render(ByteBuffer, AudioFormat)
+ */
+public final class PcmConverter {
+
+    private Clipping clipping = Clipping.HARD;
+
+    private double[] samples = new double[0];
+    private byte[] bytes = new byte[0];
+    private short[] shorts = new short[0];
+    private float[] floats = new float[0];
+
+    public Clipping getClipping() {
+        return clipping;
+    }
+
+    /**
+     * <p>Defines how samples out of range are handled.</p>
+     * <p>Defaults to <b>{@link Clipping#HARD}</b>.</p>
+     *
+     * @param clipping The clipping.
+     */
+    public void setClipping(Clipping clipping) {
+        this.clipping = clipping;
+    }
+
+    /**
+     * @param buffer The buffer.
+     * @param format The format of the frames.
+     * @return How many whole frames fit in the remaining space of the buffer.
+     */
+    public int frames(ByteBuffer buffer, AudioFormat format) {
+        return buffer.remaining() / (channels(format.getChannels()) * PcmEncoding.of(format).getBytes());
+    }
+
+    /**
+     * <p>Writes frames at the position of the buffer, advancing it.</p>
+     *
+     * @param source         The samples, interleaved if there is more than one channel.
+     * @param offset         Position of the first sample.
+     * @param frames         How many frames are going to be written.
+     * @param sourceChannels How many channels the source has, 1, or the same as the output.
+     * @param buffer         The buffer that receives the frames.
+     * @param format         The format of the frames, signed 16, 24 or 32 bit samples, or 32 bit float samples, in any endianness.
+     * @throws java.nio.BufferOverflowException If the buffer doesn't have room for the frames, in which case nothing is written.
+     */
+    public void write(double[] source, int offset, int frames, int sourceChannels, ByteBuffer buffer, AudioFormat format) {
+        final PcmEncoding encoding = PcmEncoding.of(format);
+        final int count = interleave(source, offset, frames, sourceChannels, channels(format.getChannels()));
+        final int size = count * encoding.getBytes();
+
+        if (bytes.length < size) {
+            bytes = new byte[size];
+        }
+
+        encoding.encode(samples, 0, count, bytes, 0, format.isBigEndian());
+        buffer.put(bytes, 0, size);
+    }
+
+    /**
+     * <p>Writes 16 bit frames at the position of the buffer, in the byte order of the buffer, advancing it.</p>
+     *
+     * @param source         The samples, interleaved if there is more than one channel.
+     * @param offset         Position of the first sample.
+     * @param frames         How many frames are going to be written.
+     * @param sourceChannels How many channels the source has, 1, or the same as the output.
+     * @param buffer         The buffer that receives the frames.
+     * @param channels       How many channels each frame has.
+     * @throws java.nio.BufferOverflowException If the buffer doesn't have room for the frames, in which case nothing is written.
+     */
+    public void write(double[] source, int offset, int frames, int sourceChannels, ShortBuffer buffer, int channels) {
+        final int count = interleave(source, offset, frames, sourceChannels, channels(channels));
+
+        if (shorts.length < count) {
+            shorts = new short[count];
+        }
+
+        for (int i = 0; i < count; i++) {
+            shorts[i] = (short) (Math.max(-1, Math.min(samples[i], 1)) * MathFunctions.SIGNED_16_BIT_MAX);
+        }
+
+        buffer.put(shorts, 0, count);
+    }
+
+    /**
+     * <p>Writes float frames at the position of the buffer, in the byte order of the buffer, advancing it.</p>
+     *
+     * @param source         The samples, interleaved if there is more than one channel.
+     * @param offset         Position of the first sample.
+     * @param frames         How many frames are going to be written.
+     * @param sourceChannels How many channels the source has, 1, or the same as the output.
+     * @param buffer         The buffer that receives the frames.
+     * @param channels       How many channels each frame has.
+     * @throws java.nio.BufferOverflowException If the buffer doesn't have room for the frames, in which case nothing is written.
+     */
+    public void write(double[] source, int offset, int frames, int sourceChannels, FloatBuffer buffer, int channels) {
+        final int count = interleave(source, offset, frames, sourceChannels, channels(channels));
+
+        if (floats.length < count) {
+            floats = new float[count];
+        }
+
+        for (int i = 0; i < count; i++) {
+            floats[i] = (float) Math.max(-1, Math.min(samples[i], 1));
+        }
+
+        buffer.put(floats, 0, count);
+    }
+
+    // clips the samples, repeating mono samples for every channel, returns how many values were produced
+    private int interleave(double[] source, int offset, int frames, int sourceChannels, int channels) {
+        if ((sourceChannels != 1) && (sourceChannels != channels)) {
+            throw new IllegalArgumentException("Can't convert " + sourceChannels + " channels to " + channels);
+        }
+
+        final int count = frames * channels;
+        double sample;
+
+        if (samples.length < count) {
+            samples = new double[count];
+        }
+
+        if (sourceChannels == channels) {
+            for (int i = 0; i < count; i++) {
+                samples[i] = clipping.apply(source[offset + i]);
+            }
+        } else {
+            for (int i = 0; i < frames; i++) {
+                sample = clipping.apply(source[offset + i]);
+
+                for (int channel = 0; channel < channels; channel++) {
+                    samples[i * channels + channel] = sample;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    private static int channels(int channels) {
+        if ((channels < 1) || (channels > 8)) {
+            throw new IllegalArgumentException("Channels must be from 1 to 8, found " + channels);
+        }
+
+        return channels;
+    }
+
+}
@@ -0,0 +1,154 @@
+package com.jbatista.wmo.util;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * <p>Ways of storing a sample as bytes, converts the samples produced by the instruments, from -1 to 1, to PCM.</p>
+ * <p>Values out of range are clipped.</p>
+ *
+ * @see PcmConverter
+ * @see WavWriter
+ */
+public enum PcmEncoding {
+
+    PCM_16(16) {
+        @Override
+        public void encode(double[] samples, int offset, int count, byte[] bytes, int byteOffset, boolean bigEndian) {
+            int value;
+
+            if (bigEndian) {
+                for (int i = offset; i < offset + count; i++) {
+                    value = (int) (clip(samples[i]) * MathFunctions.SIGNED_16_BIT_MAX);
+                    bytes[byteOffset++] = (byte) (value >> 8);
+                    bytes[byteOffset++] = (byte) value;
+                }
+            } else {
+                for (int i = offset; i < offset + count; i++) {
+                    value = (int) (clip(samples[i]) * MathFunctions.SIGNED_16_BIT_MAX);
+                    bytes[byteOffset++] = (byte) value;
+                    bytes[byteOffset++] = (byte) (value >> 8);
+                }
+            }
+        }
+    },
+
+    PCM_24(24) {
+        @Override
+        public void encode(double[] samples, int offset, int count, byte[] bytes, int byteOffset, boolean bigEndian) {
+            int value;
+
+            if (bigEndian) {
+                for (int i = offset; i < offset + count; i++) {
+                    value = (int) (clip(samples[i]) * MathFunctions.SIGNED_24_BIT_MAX);
+                    bytes[byteOffset++] = (byte) (value >> 16);
+                    bytes[byteOffset++] = (byte) (value >> 8);
+                    bytes[byteOffset++] = (byte) value;
+                }
+            } else {
+                for (int i = offset; i < offset + count; i++) {
+                    value = (int) (clip(samples[i]) * MathFunctions.SIGNED_24_BIT_MAX);
+                    bytes[byteOffset++] = (byte) value;
+                    bytes[byteOffset++] = (byte) (value >> 8);
+                    bytes[byteOffset++] = (byte) (value >> 16);
+                }
+            }
+        }
+    },
+
+    PCM_32(32) {
+        @Override
+        public void encode(double[] samples, int offset, int count, byte[] bytes, int byteOffset, boolean bigEndian) {
+            for (int i = offset; i < offset + count; i++) {
+                putInt(bytes, byteOffset, (int) (clip(samples[i]) * Integer.MAX_VALUE), bigEndian);
+                byteOffset += 4;
+            }
+        }
+    },
+
+    FLOAT_32(32) {
+        @Override
+        public void encode(double[] samples, int offset, int count, byte[] bytes, int byteOffset, boolean bigEndian) {
+            for (int i = offset; i < offset + count; i++) {
+                putInt(bytes, byteOffset, Float.floatToRawIntBits((float) clip(samples[i])), bigEndian);
+                byteOffset += 4;
+            }
+        }
+    };
+
+    private final int bits;
+
+    PcmEncoding(int bits) {
+        this.bits = bits;
+    }
+
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+     * @return How many bytes a sample takes.
+     */
+    public int getBytes() {
+        return bits / 8;
+    }
+
+    public boolean isFloatingPoint() {
+        return this == FLOAT_32;
+    }
+
+    /**
+     * @param format A format with signed 16, 24 or 32 bit samples, or 32 bit float samples.
+     * @return The encoding of the samples of the format.
+     */
+    public static PcmEncoding of(AudioFormat format) {
+        if (AudioFormat.Encoding.PCM_FLOAT.equals(format.getEncoding()) && (format.getSampleSizeInBits() == 32)) {
+            return FLOAT_32;
+        }
+
+        if (AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding())) {
+            switch (format.getSampleSizeInBits()) {
+                case 16:
+                    return PCM_16;
+                case 24:
+                    return PCM_24;
+                case 32:
+                    return PCM_32;
+                default:
+                    break;
+            }
+        }
+
+        throw new IllegalArgumentException("Audio format not supported: " + format);
+    }
+
+    /**
+     * <p>Converts a series of samples to bytes.</p>
+     *
+     * @param samples    The samples, from -1 to 1.
+     * @param offset     Position of the first sample.
+     * @param count      How many samples are going to be converted.
+     * @param bytes      The array that receives the bytes, must have room for <code>count * getBytes()</code> values after the offset.
+     * @param byteOffset Position where the first byte is written.
+     * @param bigEndian  Defines the endianness of the values.
+     */
+    public abstract void encode(double[] samples, int offset, int count, byte[] bytes, int byteOffset, boolean bigEndian);
+
+    private static double clip(double sample) {
+        return Math.max(-1, Math.min(sample, 1));
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value, boolean bigEndian) {
+        if (bigEndian) {
+            bytes[offset] = (byte) (value >> 24);
+            bytes[offset + 1] = (byte) (value >> 16);
+            bytes[offset + 2] = (byte) (value >> 8);
+            bytes[offset + 3] = (byte) value;
+        } else {
+            bytes[offset] = (byte) value;
+            bytes[offset + 1] = (byte) (value >> 8);
+            bytes[offset + 2] = (byte) (value >> 16);
+            bytes[offset + 3] = (byte) (value >> 24);
+        }
+    }
+
+}
@@ -0,0 +1,31 @@
+package com.jbatista.wmo.util;
+
+import com.jbatista.wmo.WaveForm;
+
+/**
+ * <p>One sample at a time implementation of {@link SineKernel}, available on every Java version.</p>
+ */
+final class ScalarSineKernel {
+
+    private ScalarSineKernel() {
+    }
+
+    static double render(SineTable sineTable, double phase, double increment, double outputLevel,
+                         double[] envelope, double[] modulation, double[] output, int frames) {
+        return render(sineTable, phase, increment, outputLevel, envelope, modulation, output, 0, frames);
+    }
+
+    // frames from start (inclusive) to end (exclusive)
+    static double render(SineTable sineTable, double phase, double increment, double outputLevel,
+                         double[] envelope, double[] modulation, double[] output, int start, int end) {
+        for (int i = start; i < end; i++) {
+            output[i] = outputLevel * envelope[i] * Dsp.oscillator(WaveForm.SINE, sineTable, phase, modulation[i]);
+
+            phase += increment;
+            phase -= (long) phase;
+        }
+
+        return phase;
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.jbatista.wmo.util;
+
+/**
+ * <p>Immutable table with one cycle of a sine wave, used in place of {@link Math#sin(double)} on the oscillators.</p>
+ * <p>Values between entries are obtained using linear or cubic (Catmull-Rom) interpolation, instances can be shared by any number of threads.</p>
+ *
+ * @see com.jbatista.wmo.EngineQuality
+ * @see Dsp#oscillator(com.jbatista.wmo.WaveForm, SineTable, double, double)
+ */
+public final class SineTable {
+
+    public enum Interpolation {LINEAR, CUBIC}
+
+    private final int size;
+    private final Interpolation interpolation;
+    private final boolean cubic;
+
+    // entry i + 1 holds sin(TAU * i / size), with guard entries on both ends for the interpolation
+    private final double[] table;
+
+    /**
+     * @param size          Number of entries of a cycle, a power of two from 1024 to 65536.
+     * @param interpolation How values between entries are calculated.
+     */
+    public SineTable(int size, Interpolation interpolation) {
+        if ((size < 1024) || (size > 65536) || (Integer.bitCount(size) != 1)) {
+            throw new IllegalArgumentException("Size must be a power of two from 1024 to 65536, found " + size);
+        }
+
+        this.size = size;
+        this.interpolation = interpolation;
+        this.cubic = interpolation == Interpolation.CUBIC;
+        this.table = new double[size + 4];
+
+        for (int i = 0; i < table.length; i++) {
+            table[i] = Math.sin(MathFunctions.TAU * (i - 1) / size);
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public Interpolation getInterpolation() {
+        return interpolation;
+    }
+
+    /**
+     * @param phase Position in the cycle, from 0 (inclusive) to 1 (exclusive).
+     * @return The same as <code>Math.sin(MathFunctions.TAU * phase)</code>, within the table precision.
+     */
+    public double sin(double phase) {
+        final double position = phase * size;
+        final int index = (int) position + 1;
+        final double fraction = position - (index - 1);
+
+        if (cubic) {
+            final double p0 = table[index - 1];
+            final double p1 = table[index];
+            final double p2 = table[index + 1];
+            final double p3 = table[index + 2];
+
+            return p1 + 0.5 * fraction * (p2 - p0
+                    + fraction * (2 * p0 - 5 * p1 + 4 * p2 - p3
+                    + fraction * (3 * (p1 - p2) + p3 - p0)));
+        }
+
+        return table[index] + fraction * (table[index + 1] - table[index]);
+    }
+
+}
@@ -0,0 +1,244 @@
+package com.jbatista.wmo.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>Writes blocks of samples to a WAV file as they are rendered, through a {@link FileChannel}.</p>
+ * <p>Samples are encoded by the {@link PcmEncoding} into an array, which is copied in bulk to a reusable direct buffer,
+ * or to the mapped file when {@link #WavWriter(Path, int, int, PcmEncoding, boolean) memory mapped}, nothing is allocated per block.</p>
+ * <p>The sizes on the header are written when the writer is closed, files bigger than 4 GB are written as RF64.</p>
+ *
+ * @see Mixer#render(double[], int, int)
+ * @see com.jbatista.wmo.synthesis.Instrument#render(double[], int, int)
+ */
+public final class WavWriter implements AutoCloseable {
+
+    // RIFF header, a JUNK chunk that becomes the ds64 chunk of a RF64 file, the fmt chunk, and the header of the data chunk
+    private static final int HEADER_SIZE = 80;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long MAPPED_REGION_SIZE = 1 << 26;
+    private static final long RIFF_LIMIT = 0xFFFFFFFFL;
+
+    private final FileChannel channel;
+    private final PcmEncoding encoding;
+    private final int sampleRate;
+    private final int channels;
+    private final int frameSize;
+    private final boolean memoryMapped;
+
+    // streaming writes go through this buffer, mapped writes go to the current region of the file
+    private ByteBuffer buffer;
+    private long bufferPosition;
+    private final byte[] bytes;
+
+    private long frames;
+    private boolean closed;
+
+    /**
+     * @param path       The file, overwritten if it exists.
+     * @param sampleRate Sample rate of the audio.
+     * @param channels   How many channels each frame has, samples of a frame are interleaved.
+     * @param encoding   How the samples are stored.
+     * @throws IOException If the file could not be created.
+     */
+    public WavWriter(Path path, int sampleRate, int channels, PcmEncoding encoding) throws IOException {
+        this(path, sampleRate, channels, encoding, false);
+    }
+
+    /**
+     * <p>A memory mapped writer lets the operating system write the pages of the file, instead of copying every block to it.
+     * The mapped regions are released by the garbage collector, on some systems the file can't be deleted until then.</p>
+     *
+     * @param path         The file, overwritten if it exists.
+     * @param sampleRate   Sample rate of the audio.
+     * @param channels     How many channels each frame has, samples of a frame are interleaved.
+     * @param encoding     How the samples are stored.
+     * @param memoryMapped Whether the file is written through memory mapped regions.
+     * @throws IOException If the file could not be created.
+     */
+    public WavWriter(Path path, int sampleRate, int channels, PcmEncoding encoding, boolean memoryMapped) throws IOException {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("Sample rate must be positive, found " + sampleRate);
+        }
+
+        if ((channels < 1) || (channels > 8)) {
+            throw new IllegalArgumentException("Channels must be from 1 to 8, found " + channels);
+        }
+
+        this.encoding = encoding;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.frameSize = channels * encoding.getBytes();
+        this.memoryMapped = memoryMapped;
+        this.bytes = new byte[BUFFER_SIZE - (BUFFER_SIZE % frameSize)];
+        this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            channel.write(header(false, 0), 0);
+        } catch (IOException exception) {
+            channel.close();
+            throw exception;
+        }
+
+        bufferPosition = HEADER_SIZE;
+
+        if (memoryMapped) {
+            mapRegion();
+        } else {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE - (BUFFER_SIZE % frameSize)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public PcmEncoding getEncoding() {
+        return encoding;
+    }
+
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * @return How many frames were written so far.
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * <p>Appends frames to the file.</p>
+     *
+     * @param samples Interleaved samples, from -1 to 1, <code>frames * channels</code> are read.
+     * @param offset  Position of the first sample.
+     * @param frames  How many frames are going to be written.
+     * @throws IOException If the file could not be written.
+     */
+    public void write(double[] samples, int offset, int frames) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Writer is closed");
+        }
+
+        int position = offset;
+        int remaining = frames * channels;
+        int count;
+
+        while (remaining > 0) {
+            if (buffer.remaining() < frameSize) {
+                if (memoryMapped) {
+                    mapRegion();
+                } else {
+                    flush();
+                }
+            }
+
+            // whole frames, as many as fit on the buffer and on the array
+            count = Math.min(remaining, Math.min(buffer.remaining(), bytes.length) / frameSize * channels);
+
+            encoding.encode(samples, position, count, bytes, 0, false);
+            buffer.put(bytes, 0, count * encoding.getBytes());
+
+            position += count;
+            remaining -= count;
+        }
+
+        this.frames += frames;
+    }
+
+    /**
+     * <p>Writes what is left on the buffer, fixes the sizes on the header, and closes the file.</p>
+     *
+     * @throws IOException If the file could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        try {
+            final long dataSize = frames * frameSize;
+
+            if (memoryMapped) {
+                buffer = null;
+                channel.truncate(HEADER_SIZE + dataSize);
+            } else {
+                flush();
+            }
+
+            channel.write(header(HEADER_SIZE - 8 + dataSize > RIFF_LIMIT, dataSize), 0);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+
+        while (buffer.hasRemaining()) {
+            bufferPosition += channel.write(buffer, bufferPosition);
+        }
+
+        buffer.clear();
+    }
+
+    // regions have a whole number of frames, so a frame is never split between two of them
+    private void mapRegion() throws IOException {
+        if (buffer != null) {
+            bufferPosition += buffer.position();
+        }
+
+        buffer = channel
+                .map(FileChannel.MapMode.READ_WRITE, bufferPosition, MAPPED_REGION_SIZE - (MAPPED_REGION_SIZE % frameSize))
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private ByteBuffer header(boolean rf64, long dataSize) {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        final long riffSize = HEADER_SIZE - 8 + dataSize;
+
+        header.put(ascii(rf64 ? "RF64" : "RIFF")).putInt((int) (rf64 ? RIFF_LIMIT : riffSize)).put(ascii("WAVE"));
+
+        // the ds64 chunk has the real sizes when they don't fit in 32 bits, otherwise the space is kept as a JUNK chunk
+        header.put(ascii(rf64 ? "ds64" : "JUNK")).putInt(28);
+        if (rf64) {
+            header.putLong(riffSize).putLong(dataSize).putLong(frames).putInt(0);
+        } else {
+            header.position(header.position() + 28);
+        }
+
+        header.put(ascii("fmt ")).putInt(16)
+                .putShort((short) (encoding.isFloatingPoint() ? 3 : 1))
+                .putShort((short) channels)
+                .putInt(sampleRate)
+                .putInt(sampleRate * frameSize)
+                .putShort((short) frameSize)
+                .putShort((short) encoding.getBits());
+
+        header.put(ascii("data")).putInt((int) (rf64 ? RIFF_LIMIT : dataSize));
+        header.flip();
+
+        return header;
+    }
+
+    private static byte[] ascii(String id) {
+        return id.getBytes(StandardCharsets.US_ASCII);
+    }
+
+}
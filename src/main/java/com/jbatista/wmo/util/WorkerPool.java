@@ -0,0 +1,162 @@
+package com.jbatista.wmo.util;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntConsumer;
+
+/**
+ * <p>Fixed set of threads that runs numbered tasks in parallel, used to render audio blocks on several cores.</p>
+ * <p>The thread calling {@link #run(int, IntConsumer)} takes part in the work and waits until every task is done, nothing is allocated per call.
+ * Tasks are taken in any order by any thread, so each one must write to its own place.</p>
+ * <p>Only one call runs on the pool at a time, a call made while the pool is busy (from inside a task, or from another thread)
+ * runs its tasks on the calling thread instead of waiting.</p>
+ *
+ * @see Mixer#setWorkerPool(WorkerPool)
+ */
+public final class WorkerPool implements AutoCloseable {
+
+    private final Thread[] workers;
+    private final AtomicBoolean busy = new AtomicBoolean();
+
+    // generation on the high 32 bits, next task on the low 32 bits
+    private final AtomicLong state = new AtomicLong();
+    private final AtomicInteger remaining = new AtomicInteger();
+
+    private volatile IntConsumer task;
+    private volatile int tasks;
+    private volatile Thread caller;
+    private volatile Throwable failure;
+    private volatile boolean closed;
+
+    /**
+     * @param parallelism How many threads work on the tasks, including the calling thread, at least 1.
+     */
+    public WorkerPool(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, found " + parallelism);
+        }
+
+        workers = new Thread[parallelism - 1];
+
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(this::work, "wmo-worker-" + i);
+            workers[i].setDaemon(true);
+            workers[i].setPriority(Thread.MAX_PRIORITY);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * @return How many threads work on the tasks, including the calling thread.
+     */
+    public int getParallelism() {
+        return workers.length + 1;
+    }
+
+    /**
+     * <p>Runs <code>task.accept(0)</code> to <code>task.accept(tasks - 1)</code>, returns when all of them are done.</p>
+     *
+     * @param tasks How many tasks are going to run.
+     * @param task  The work, receives the number of the task.
+     */
+    public void run(int tasks, IntConsumer task) {
+        if ((tasks < 2) || (workers.length == 0) || closed || !busy.compareAndSet(false, true)) {
+            for (int i = 0; i < tasks; i++) {
+                task.accept(i);
+            }
+
+            return;
+        }
+
+        try {
+            this.task = task;
+            this.tasks = tasks;
+            this.caller = Thread.currentThread();
+            this.failure = null;
+            remaining.set(tasks);
+
+            // starting a new generation releases the workers
+            state.set(((state.get() >>> 32) + 1) << 32);
+            for (Thread worker : workers) {
+                LockSupport.unpark(worker);
+            }
+
+            execute(state.get() >>> 32);
+
+            while (remaining.get() != 0) {
+                LockSupport.park(this);
+            }
+
+            // closes the generation before the next call replaces the task, a thread late for it can't take a task of the next call
+            state.set(((state.get() >>> 32) << 32) | Integer.MAX_VALUE);
+            this.task = null;
+
+            if (failure != null) {
+                throw new IllegalStateException("A task has failed", failure);
+            }
+        } finally {
+            busy.set(false);
+        }
+    }
+
+    /**
+     * <p>Stops the threads, calls made afterwards run on the calling thread.</p>
+     */
+    @Override
+    public void close() {
+        closed = true;
+
+        for (Thread worker : workers) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    private void work() {
+        long generation = 0;
+        long current;
+
+        while (!closed) {
+            current = state.get() >>> 32;
+
+            if (current == generation) {
+                LockSupport.park(this);
+            } else {
+                generation = current;
+                execute(generation);
+            }
+        }
+    }
+
+    // takes tasks until there are none left, a thread late for its generation gets nothing,
+    // the task and the count may already be the ones of the next call, but then the generation is either closed or a new one
+    private void execute(long generation) {
+        final IntConsumer currentTask = task;
+        final int count = tasks;
+        long current;
+        int index;
+
+        while (true) {
+            current = state.get();
+            index = (int) current;
+
+            if (((current >>> 32) != generation) || (index >= count)) {
+                return;
+            }
+
+            if (state.compareAndSet(current, current + 1)) {
+                try {
+                    currentTask.accept(index);
+                } catch (Throwable throwable) {
+                    failure = throwable;
+                }
+
+                if (remaining.decrementAndGet() == 0) {
+                    LockSupport.unpark(caller);
+                }
+            }
+        }
+    }
+
+}
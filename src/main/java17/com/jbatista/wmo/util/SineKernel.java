@@ -0,0 +1,47 @@
+package com.jbatista.wmo.util;
+
+/**
+ * <p>Produces a block of sine wave samples for an oscillator, with phase advance, phase modulation, envelope, and output level applied.</p>
+ * <p>This is the Java 17 version, it processes several samples at a time in SIMD lanes when the <code>jdk.incubator.vector</code> module is added
+ * (<code>--add-modules jdk.incubator.vector</code>), otherwise it falls back to one sample at a time, like the Java 8 version.</p>
+ *
+ * @see #isVectorized()
+ * @see Dsp#oscillator(com.jbatista.wmo.WaveForm, SineTable, double, double)
+ */
+public final class SineKernel {
+
+    private static final boolean VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() && VectorSineKernel.isSupported();
+
+    private SineKernel() {
+    }
+
+    /**
+     * @return True if the SIMD version is in use.
+     */
+    public static boolean isVectorized() {
+        return VECTORIZED;
+    }
+
+    /**
+     * <p>For every frame: <code>output[i] = outputLevel * envelope[i] * sin(phase + modulation[i])</code>, then the phase advances by the increment.</p>
+     * <p>The SIMD version calculates the phase of each frame from the phase of the first one, and replaces the sine tables with a polynomial
+     * at least as precise as the table being replaced, results can differ from the Java 8 version in the last bits.</p>
+     *
+     * @param sineTable   Table used to calculate the sine, when <code>null</code> {@link Math#sin(double)} is used.
+     * @param phase       Position in the cycle of the first frame, from 0 (inclusive) to 1 (exclusive).
+     * @param increment   How much the phase advances per frame, frequency divided by the sample rate.
+     * @param outputLevel Factor applied to every sample.
+     * @param envelope    Amplitude of the envelope, one value per frame.
+     * @param modulation  Phase offset in radians, one value per frame.
+     * @param output      Receives one sample per frame.
+     * @param frames      How many frames are going to be produced.
+     * @return The phase after the last frame.
+     */
+    public static double render(SineTable sineTable, double phase, double increment, double outputLevel,
+                                double[] envelope, double[] modulation, double[] output, int frames) {
+        return VECTORIZED
+                ? VectorSineKernel.render(sineTable, phase, increment, outputLevel, envelope, modulation, output, frames)
+                : ScalarSineKernel.render(sineTable, phase, increment, outputLevel, envelope, modulation, output, frames);
+    }
+
+}
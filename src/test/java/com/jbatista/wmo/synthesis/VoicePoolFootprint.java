@@ -0,0 +1,38 @@
+package com.jbatista.wmo.synthesis;
+
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * <p>Measures the retained size of instruments with JOL, to follow the memory used by the voice state kept by the {@link VoicePool}.</p>
+ * <p>Prints the size of one instrument, of the 16 instruments of a {@link com.jbatista.wmo.midi.WmoReceiver}, and the footprint of one instrument by class.</p>
+ * <p>Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.jbatista.wmo.synthesis.VoicePoolFootprint</code>,
+ * optionally passing the sample rate with <code>-Dexec.args=48000</code>.</p>
+ * <p>Only the constructor of the instrument is used, so this class can also be compiled against older versions of the library, to compare the layouts.</p>
+ */
+public final class VoicePoolFootprint {
+
+    private VoicePoolFootprint() {
+    }
+
+    public static void main(String[] args) {
+        // the instrument holds lambdas, which are hidden classes whose field offsets JOL can only read this way
+        System.setProperty("jol.magicFieldOffset", "true");
+
+        final int sampleRate = (args.length > 0) ? Integer.parseInt(args[0]) : 44100;
+
+        final Instrument instrument = new Instrument(sampleRate);
+        final Instrument[] receiver = new Instrument[16];
+
+        for (int i = 0; i < receiver.length; i++) {
+            receiver[i] = new Instrument(sampleRate);
+        }
+
+        final GraphLayout layout = GraphLayout.parseInstance(instrument);
+
+        System.out.println("instrument: " + layout.totalSize() + " bytes in " + layout.totalCount() + " objects");
+        System.out.println("16 instruments: " + GraphLayout.parseInstance((Object[]) receiver).totalSize() + " bytes");
+        System.out.println();
+        System.out.println(layout.toFootprint());
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.jbatista.wmo.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class WorkerPoolTest {
+
+    private static final int CALLS = 100000;
+
+    // back to back calls with different counts, so a thread late for one call would see the task and the count of the next one,
+    // a task run twice can also leave a call waiting forever for the tasks it counts as remaining
+    @Test
+    @Timeout(value = 60, unit = TimeUnit.SECONDS, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+    void everyTaskRunsExactlyOnce() {
+        final AtomicIntegerArray[] runs = new AtomicIntegerArray[CALLS];
+
+        try (WorkerPool pool = new WorkerPool(4)) {
+            for (int call = 0; call < CALLS; call++) {
+                final AtomicIntegerArray counts = new AtomicIntegerArray(2 + (call % 15));
+                runs[call] = counts;
+
+                pool.run(counts.length(), counts::incrementAndGet);
+
+                for (int index = 0; index < counts.length(); index++) {
+                    assertEquals(1, counts.get(index), "task " + index + " of call " + call);
+                }
+            }
+        }
+
+        // nothing ran again after its call returned
+        for (int call = 0; call < CALLS; call++) {
+            for (int index = 0; index < runs[call].length(); index++) {
+                assertEquals(1, runs[call].get(index), "task " + index + " of call " + call);
+            }
+        }
+    }
+
+}